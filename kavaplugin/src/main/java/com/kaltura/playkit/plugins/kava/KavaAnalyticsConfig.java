@@ -16,6 +16,11 @@ import com.kaltura.playkit.PKLog;
 import com.kaltura.playkit.Utils;
 import com.kaltura.playkit.utils.Consts;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Created by anton.afanasiev on 04/10/2017.
  */
@@ -25,6 +30,11 @@ public class KavaAnalyticsConfig {
     private static final PKLog log = PKLog.get(KavaAnalyticsConfig.class.getSimpleName());
 
     private static final String DEFAULT_BASE_URL = "http://analytics.kaltura.com/api_v3/index.php";
+    static final long DEFAULT_VIEW_EVENT_INTERVAL = 10000;
+    //Kava session is reset by the server after 30 seconds without VIEW event.
+    static final long KAVA_SESSION_TIMEOUT = 30 * 1000;
+    private static final long DEFAULT_SESSION_CHECKPOINT_MAX_AGE = KAVA_SESSION_TIMEOUT;
+    private static final long DEFAULT_LIVE_EDGE_DRIFT_THRESHOLD = 10000;
 
     private int uiconfId;
     private int partnerId;
@@ -34,7 +44,18 @@ public class KavaAnalyticsConfig {
     private String referrerAsBase64;
     private String baseUrl = DEFAULT_BASE_URL;
     private long  dvrThreshold = Consts.DISTANCE_FROM_LIVE_THRESHOLD;
+    private long liveEdgeDriftThreshold = DEFAULT_LIVE_EDGE_DRIFT_THRESHOLD;
     private String customVar1, customVar2, customVar3;
+    private float traceSampleRate;
+    private int traceBufferSize;
+    private transient List<KavaSinkPipeline.Registration> eventSinks = new ArrayList<>();
+    private float sessionSampleRate = 1;
+    private long viewEventInterval = DEFAULT_VIEW_EVENT_INTERVAL;
+    private Map<String, Float> eventSampleRates = new HashMap<>();
+    private int dispatchWeight = KavaDispatcher.DEFAULT_WEIGHT;
+    private int maxConcurrentRequests;
+    private boolean sessionCheckpointEnabled;
+    private long sessionCheckpointMaxAge = DEFAULT_SESSION_CHECKPOINT_MAX_AGE;
 
     public KavaAnalyticsConfig setUiConfId(int uiConfId) {
         this.uiconfId = uiConfId;
@@ -61,6 +82,15 @@ public class KavaAnalyticsConfig {
         return this;
     }
 
+    /**
+     * Growth of the distance from the live edge during a single VIEW interval (without seek),
+     * in milliseconds, that is reported as live edge drift.
+     */
+    public KavaAnalyticsConfig setLiveEdgeDriftThreshold(long liveEdgeDriftThreshold) {
+        this.liveEdgeDriftThreshold = liveEdgeDriftThreshold;
+        return this;
+    }
+
     public KavaAnalyticsConfig setCustomVar1(String customVar1) {
         this.customVar1 = customVar1;
         return this;
@@ -92,6 +122,108 @@ public class KavaAnalyticsConfig {
         return this;
     }
 
+    /**
+     * Fraction of events (0 - 1) whose pipeline latency is traced into {@link KavaEventTracer}.
+     * Default is 0 - tracing disabled.
+     */
+    public KavaAnalyticsConfig setTraceSampleRate(float traceSampleRate) {
+        this.traceSampleRate = traceSampleRate;
+        return this;
+    }
+
+    /**
+     * Capacity of the {@link KavaEventTracer} ring buffer. The tracer is shared by all the players,
+     * so only players that set this value change it.
+     */
+    public KavaAnalyticsConfig setTraceBufferSize(int traceBufferSize) {
+        this.traceBufferSize = traceBufferSize;
+        return this;
+    }
+
+    /**
+     * Fraction of sessions (0 - 1) that report to Kava. The decision is taken once per media.
+     * Default is 1 - every session reports.
+     */
+    public KavaAnalyticsConfig setSessionSampleRate(float sessionSampleRate) {
+        this.sessionSampleRate = sessionSampleRate;
+        return this;
+    }
+
+    /**
+     * Fraction (0 - 1) of events of the given type that are sent by a sampled session.
+     * @param eventName - Kava event name, for example "VIEW" or "FLAVOR_SWITCHED".
+     */
+    public KavaAnalyticsConfig setEventSampleRate(String eventName, float eventSampleRate) {
+        if (eventSampleRates == null) {
+            eventSampleRates = new HashMap<>();
+        }
+        eventSampleRates.put(eventName, eventSampleRate);
+        return this;
+    }
+
+    /**
+     * Interval of active playback between VIEW events, in milliseconds.
+     * Values above 20 seconds are reduced to 20 seconds, so the server does not reset the session between VIEW events.
+     */
+    public KavaAnalyticsConfig setViewEventInterval(long viewEventInterval) {
+        this.viewEventInterval = viewEventInterval;
+        return this;
+    }
+
+    /**
+     * Share of this player in the requests dispatched on behalf of all the players in the process.
+     * For example, a main player with weight 4 sends up to 4 requests for every request of a preview player with weight 1.
+     */
+    public KavaAnalyticsConfig setDispatchWeight(int dispatchWeight) {
+        this.dispatchWeight = dispatchWeight;
+        return this;
+    }
+
+    /**
+     * Max number of Kava requests in flight for all the players in the process.
+     * Players that do not set it keep the current limit, otherwise the last configured value wins.
+     */
+    public KavaAnalyticsConfig setMaxConcurrentRequests(int maxConcurrentRequests) {
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        return this;
+    }
+
+    /**
+     * Save the session state when playback or application is paused, so after process death
+     * the same entry continues the Kava session instead of starting a new one.
+     */
+    public KavaAnalyticsConfig setSessionCheckpointEnabled(boolean sessionCheckpointEnabled) {
+        this.sessionCheckpointEnabled = sessionCheckpointEnabled;
+        return this;
+    }
+
+    /**
+     * Max time in milliseconds between saving the session state and resuming it.
+     */
+    public KavaAnalyticsConfig setSessionCheckpointMaxAge(long sessionCheckpointMaxAge) {
+        this.sessionCheckpointMaxAge = sessionCheckpointMaxAge;
+        return this;
+    }
+
+    /**
+     * Send every Kava event also to the given sink, encoded as JSON.
+     */
+    public KavaAnalyticsConfig addEventSink(KavaEventSink sink) {
+        return addEventSink(sink, KavaEventEncoder.JSON, KavaSinkPipeline.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Send every Kava event also to the given sink.
+     * @param encoder - converts event params into the sink format.
+     * @param queueCapacity - max number of events waiting for the sink. Newer events are dropped while it is full.
+     */
+    public KavaAnalyticsConfig addEventSink(KavaEventSink sink, KavaEventEncoder encoder, int queueCapacity) {
+        List<KavaSinkPipeline.Registration> sinks = new ArrayList<>(getEventSinks());
+        sinks.add(new KavaSinkPipeline.Registration(sink, encoder, queueCapacity));
+        this.eventSinks = sinks;
+        return this;
+    }
+
     int getUiConfId() {
         return uiconfId;
     }
@@ -112,6 +244,10 @@ public class KavaAnalyticsConfig {
         return dvrThreshold;
     }
 
+    long getLiveEdgeDriftThreshold() {
+        return liveEdgeDriftThreshold;
+    }
+
     String getCustomVar1() {
         return customVar1;
     }
@@ -132,6 +268,55 @@ public class KavaAnalyticsConfig {
         return referrerAsBase64;
     }
 
+    float getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    int getTraceBufferSize() {
+        return traceBufferSize;
+    }
+
+    boolean hasTraceBufferSize() {
+        return traceBufferSize > 0;
+    }
+
+    float getSessionSampleRate() {
+        return sessionSampleRate;
+    }
+
+    long getViewEventInterval() {
+        return viewEventInterval > 0 ? viewEventInterval : DEFAULT_VIEW_EVENT_INTERVAL;
+    }
+
+    Map<String, Float> getEventSampleRates() {
+        return eventSampleRates != null ? eventSampleRates : new HashMap<String, Float>();
+    }
+
+    int getDispatchWeight() {
+        return dispatchWeight;
+    }
+
+    int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    boolean hasMaxConcurrentRequests() {
+        return maxConcurrentRequests > 0;
+    }
+
+    boolean isSessionCheckpointEnabled() {
+        return sessionCheckpointEnabled;
+    }
+
+    long getSessionCheckpointMaxAge() {
+        return sessionCheckpointMaxAge;
+    }
+
+    List<KavaSinkPipeline.Registration> getEventSinks() {
+        //Field is transient, so it will be null when config is parsed from Json.
+        return eventSinks != null ? eventSinks : new ArrayList<KavaSinkPipeline.Registration>();
+    }
+
     boolean hasPlaybackContext() {
         return playbackContext != null;
     }
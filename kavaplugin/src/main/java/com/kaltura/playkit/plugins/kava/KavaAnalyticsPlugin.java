@@ -16,9 +16,9 @@ import android.content.Context;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
-import com.kaltura.netkit.connect.executor.APIOkRequestsExecutor;
-import com.kaltura.netkit.connect.executor.RequestQueue;
+import com.google.gson.JsonParser;
 import com.kaltura.netkit.connect.request.RequestBuilder;
+import com.kaltura.netkit.connect.request.RequestElement;
 import com.kaltura.netkit.connect.response.ResponseElement;
 import com.kaltura.netkit.utils.OnRequestCompletion;
 import com.kaltura.playkit.MessageBus;
@@ -43,9 +43,13 @@ import com.kaltura.playkit.plugin.kava.BuildConfig;
 import com.kaltura.playkit.utils.Consts;
 
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by anton.afanasiev on 27/09/2017.
@@ -55,15 +59,35 @@ public class KavaAnalyticsPlugin extends PKPlugin {
 
     private static final PKLog log = PKLog.get(KavaAnalyticsPlugin.class.getSimpleName());
     private static final long ONE_SECOND_IN_MS = 1000;
-    private static final int TEN_SECONDS_IN_MS = 10000;
+
+    //Single thread shared by all the plugin instances, so pause/resume cycles never create new threads.
+    private static final ScheduledExecutorService sharedViewEventScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "KavaViewTimer");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final ScheduledExecutorService viewEventScheduler;
 
     private Player player;
     private Context context;
-    private Timer viewEventTimer;
+    private ScheduledFuture<?> viewEventTimer;
     private MessageBus messageBus;
     private PKMediaConfig mediaConfig;
-    private RequestQueue requestExecutor;
     private KavaAnalyticsConfig pluginConfig;
+    private KavaSinkPipeline sinkPipeline;
+    private KavaDispatcher dispatcher;
+    private KavaDispatcher.Session dispatcherSession;
+    private KavaSessionCheckpoint sessionCheckpoint;
+    private boolean canResumeFromCheckpoint;
+    //Checkpoint of the current entry may exist on disk, so it has to be cleared when the session continues.
+    private boolean hasSessionCheckpoint;
+    private KavaSamplingPolicy samplingPolicy = new KavaSamplingPolicy();
+    private KavaLiveLatencyTracker liveLatencyTracker = new KavaLiveLatencyTracker();
+    private KavaEventTracer eventTracer = KavaEventTracer.getInstance();
     private PKEvent.Listener eventListener = initEventListener();
 
     private boolean playReached25;
@@ -77,9 +101,10 @@ public class KavaAnalyticsPlugin extends PKPlugin {
     private boolean isPaused = true;
     private boolean isFirstPlay = true;
 
-    private int eventIndex;
+    private long eventIndex;
     private int errorCode = -1;
-    private int viewEventTimeCounter;
+    private long viewEventTimeCounter;
+    private long timeSinceViewEventSent;
 
     private long actualBitrate = -1;
     private long joinTimeStartTimestamp;
@@ -91,6 +116,7 @@ public class KavaAnalyticsPlugin extends PKPlugin {
     private String referrer;
     private String deliveryType;
     private String sessionStartTime;
+    private String resumedSessionId;
     private String currentAudioLanguage;
     private String currentCaptionLanguage;
 
@@ -116,6 +142,18 @@ public class KavaAnalyticsPlugin extends PKPlugin {
         }
     };
 
+    public KavaAnalyticsPlugin() {
+        this(sharedViewEventScheduler, null);
+    }
+
+    /**
+     * @param dispatcher - dispatcher to send the events with, or null to use the process-wide one.
+     */
+    KavaAnalyticsPlugin(ScheduledExecutorService viewEventScheduler, KavaDispatcher dispatcher) {
+        this.viewEventScheduler = viewEventScheduler;
+        this.dispatcher = dispatcher;
+    }
+
     private enum KavaEvents {
         IMPRESSION(1),
         PLAY_REQUEST(2),
@@ -151,18 +189,32 @@ public class KavaAnalyticsPlugin extends PKPlugin {
         this.player = player;
         this.context = context;
         this.messageBus = messageBus;
-        this.requestExecutor = APIOkRequestsExecutor.getSingleton();
+        if (dispatcher == null) {
+            dispatcher = KavaDispatcher.getInstance();
+        }
+        this.dispatcherSession = dispatcher.openSession();
         this.messageBus.listen(eventListener, (Enum[]) PlayerEvent.Type.values());
         onUpdateConfig(config);
+        if (pluginConfig.isSessionCheckpointEnabled()) {
+            sessionCheckpoint = new KavaSessionCheckpoint(context);
+            sessionCheckpoint.removeExpired(pluginConfig.getSessionCheckpointMaxAge());
+            canResumeFromCheckpoint = true;
+        }
     }
 
     @Override
     protected void onUpdateMedia(PKMediaConfig mediaConfig) {
+        //Session of the previous media is over, so it can not be resumed anymore.
+        clearSessionCheckpoint();
         this.mediaConfig = mediaConfig;
         sessionStartTime = null;
         eventIndex = 1;
+        samplingPolicy.startSession();
+        liveLatencyTracker.clear();
         resetFlags();
         resetPlayerReachedFlags();
+        resumedSessionId = null;
+        maybeResumeSession();
     }
 
     @Override
@@ -172,22 +224,57 @@ public class KavaAnalyticsPlugin extends PKPlugin {
         if (referrer == null) {
             referrer = buildDefaultReferrer();
         }
+        if (pluginConfig.hasTraceBufferSize()) {
+            eventTracer.setBufferSize(pluginConfig.getTraceBufferSize());
+        }
+        samplingPolicy.applyConfig(pluginConfig);
+        dispatcherSession.setWeight(pluginConfig.getDispatchWeight());
+        if (pluginConfig.hasMaxConcurrentRequests()) {
+            dispatcher.setMaxInFlight(pluginConfig.getMaxConcurrentRequests());
+        }
+        updateSinkPipeline();
     }
 
     @Override
     protected void onApplicationPaused() {
         isPaused = true;
+        liveLatencyTracker.onPauseOrResume();
         stopAnalyticsTimer();
+        saveSessionCheckpoint();
     }
 
     @Override
     protected void onApplicationResumed() {
+        //Saved state becomes stale as soon as the session continues.
+        clearSessionCheckpoint();
+        liveLatencyTracker.onPauseOrResume();
         startAnalyticsTimer();
     }
 
     @Override
     protected void onDestroy() {
         stopAnalyticsTimer();
+        dispatcherSession.close();
+        clearSessionCheckpoint();
+        if (sinkPipeline != null) {
+            sinkPipeline.shutdown();
+            sinkPipeline = null;
+        }
+    }
+
+    private void updateSinkPipeline() {
+        List<KavaSinkPipeline.Registration> eventSinks = pluginConfig.getEventSinks();
+        if (sinkPipeline != null) {
+            if (sinkPipeline.isServing(eventSinks)) {
+                return;
+            }
+            sinkPipeline.shutdown();
+            sinkPipeline = null;
+        }
+
+        if (!eventSinks.isEmpty()) {
+            sinkPipeline = new KavaSinkPipeline(eventSinks);
+        }
     }
 
     private PKEvent.Listener initEventListener() {
@@ -195,6 +282,7 @@ public class KavaAnalyticsPlugin extends PKPlugin {
             @Override
             public void onEvent(PKEvent event) {
                 if (event instanceof PlayerEvent) {
+                    long eventReceivedNanos = System.nanoTime();
                     switch (((PlayerEvent) event).type) {
                         case STATE_CHANGED:
                             handleStateChanged((PlayerEvent.StateChanged) event);
@@ -202,47 +290,58 @@ public class KavaAnalyticsPlugin extends PKPlugin {
                         case LOADED_METADATA:
                             if (!isImpressionSent) {
                                 startAnalyticsTimer();
-                                sendAnalyticsEvent(KavaEvents.IMPRESSION);
+                                sendAnalyticsEvent(KavaEvents.IMPRESSION, eventReceivedNanos);
                                 if (isAutoPlay) {
                                     sendAnalyticsEvent(KavaEvents.PLAY_REQUEST);
                                     isAutoPlay = false;
                                 }
                                 isImpressionSent = true;
+                            } else if (viewEventTimer == null) {
+                                //Session resumed from checkpoint, so there is no IMPRESSION but VIEW events should continue.
+                                startAnalyticsTimer();
                             }
                             break;
                         case PLAY:
+                            dispatcherSession.moveToForeground();
                             if(isFirstPlay) {
                                 joinTimeStartTimestamp = System.currentTimeMillis();
                             }
                             if (isImpressionSent) {
-                                sendAnalyticsEvent(KavaEvents.PLAY_REQUEST);
+                                sendAnalyticsEvent(KavaEvents.PLAY_REQUEST, eventReceivedNanos);
                             } else {
                                 isAutoPlay = true;
                             }
                             break;
                         case PAUSE:
                             isPaused = true;
-                            sendAnalyticsEvent(KavaEvents.PAUSE);
+                            liveLatencyTracker.onPauseOrResume();
+                            sendAnalyticsEvent(KavaEvents.PAUSE, eventReceivedNanos);
+                            saveSessionCheckpoint();
                             break;
                         case PLAYING:
                             if (isFirstPlay) {
                                 isFirstPlay = false;
-                                sendAnalyticsEvent(KavaEvents.PLAY);
+                                sendAnalyticsEvent(KavaEvents.PLAY, eventReceivedNanos);
                             } else {
                                 if (isPaused && !isEnded) {
-                                    sendAnalyticsEvent(KavaEvents.RESUME);
+                                    sendAnalyticsEvent(KavaEvents.RESUME, eventReceivedNanos);
                                 }
                             }
                             isEnded = false; // needed in order to prevent sending of RESUME event after REPLAY.
+                            if (isPaused) {
+                                liveLatencyTracker.onPauseOrResume();
+                            }
                             isPaused = false;
+                            clearSessionCheckpoint();
                             break;
                         case SEEKING:
                             PlayerEvent.Seeking seekingEvent = (PlayerEvent.Seeking) event;
                             targetSeekPositionInSeconds = seekingEvent.targetPosition / Consts.MILLISECONDS_MULTIPLIER;
-                            sendAnalyticsEvent(KavaEvents.SEEK);
+                            liveLatencyTracker.onSeek();
+                            sendAnalyticsEvent(KavaEvents.SEEK, eventReceivedNanos);
                             break;
                         case REPLAY:
-                            sendAnalyticsEvent(KavaEvents.REPLAY);
+                            sendAnalyticsEvent(KavaEvents.REPLAY, eventReceivedNanos);
                             break;
                         case SOURCE_SELECTED:
                             PKMediaSource selectedSource = ((PlayerEvent.SourceSelected) event).source;
@@ -262,23 +361,23 @@ public class KavaAnalyticsPlugin extends PKPlugin {
                             PlaybackInfo playbackInfo = ((PlayerEvent.PlaybackInfoUpdated) event).playbackInfo;
                             if(actualBitrate != playbackInfo.getVideoBitrate()) {
                                 actualBitrate = playbackInfo.getVideoBitrate();
-                                sendAnalyticsEvent(KavaEvents.FLAVOR_SWITCHED);
+                                sendAnalyticsEvent(KavaEvents.FLAVOR_SWITCHED, eventReceivedNanos);
                             }
                             break;
                         case VIDEO_TRACK_CHANGED:
                             PlayerEvent.VideoTrackChanged videoTrackChanged = ((PlayerEvent.VideoTrackChanged) event);
                             actualBitrate = videoTrackChanged.newTrack.getBitrate();
-                            sendAnalyticsEvent(KavaEvents.SOURCE_SELECTED);
+                            sendAnalyticsEvent(KavaEvents.SOURCE_SELECTED, eventReceivedNanos);
                             break;
                         case AUDIO_TRACK_CHANGED:
                             PlayerEvent.AudioTrackChanged audioTrackChanged = (PlayerEvent.AudioTrackChanged) event;
                             currentAudioLanguage = audioTrackChanged.newTrack.getLanguage();
-                            sendAnalyticsEvent(KavaEvents.AUDIO_SELECTED);
+                            sendAnalyticsEvent(KavaEvents.AUDIO_SELECTED, eventReceivedNanos);
                             break;
                         case TEXT_TRACK_CHANGED:
                             PlayerEvent.TextTrackChanged textTrackChanged = (PlayerEvent.TextTrackChanged) event;
                             currentCaptionLanguage = textTrackChanged.newTrack.getLanguage();
-                            sendAnalyticsEvent(KavaEvents.CAPTIONS);
+                            sendAnalyticsEvent(KavaEvents.CAPTIONS, eventReceivedNanos);
                             break;
                         case ERROR:
                             PKError error = ((PlayerEvent.Error) event).error;
@@ -291,7 +390,7 @@ public class KavaAnalyticsPlugin extends PKPlugin {
                             }
                             log.e("Playback ERROR errorCode : " + errorCode);
 
-                            sendAnalyticsEvent(KavaEvents.ERROR);
+                            sendAnalyticsEvent(KavaEvents.ERROR, eventReceivedNanos);
                             break;
                     }
                 }
@@ -312,32 +411,112 @@ public class KavaAnalyticsPlugin extends PKPlugin {
         }
     }
 
-    private void sendAnalyticsEvent(final KavaEvents event) {
+    private boolean sendAnalyticsEvent(KavaEvents event) {
+        return sendAnalyticsEvent(event, System.nanoTime());
+    }
+
+    private boolean sendAnalyticsEvent(KavaEvents event, long dispatchStartNanos) {
+        return sendAnalyticsEvent(event, dispatchStartNanos, 0);
+    }
+
+    /**
+     * @param dispatchStartNanos - {@link System#nanoTime()} when the reason to send this event was observed.
+     * @param timeSinceViewEventSent - active playback time since the last sent VIEW, only for VIEW sampling.
+     * @return true if event was queued, false if it was dropped by validation or sampling.
+     */
+    private synchronized boolean sendAnalyticsEvent(final KavaEvents event, long dispatchStartNanos, long timeSinceViewEventSent) {
         if (!pluginConfig.isPartnerIdValid()) {
             log.w("Can not send analytics event. Mandatory field partnerId is missing");
-            return;
+            return false;
         }
         if(mediaConfig == null || mediaConfig.getMediaEntry() == null || mediaConfig.getMediaEntry().getId() == null) {
             log.w("Can not send analytics event. Mandatory field entryId is missing");
-            return;
+            return false;
+        }
+        if (!samplingPolicy.shouldSend(event.name(), timeSinceViewEventSent)) {
+            return false;
+        }
+
+        final KavaEventTracer.Trace trace = eventTracer.startTrace(event.name(), dispatchStartNanos, pluginConfig.getTraceSampleRate());
+        if (trace != null) {
+            trace.mark("dispatch");
         }
 
         Map<String, String> params = gatherParams(event);
+        if (trace != null) {
+            trace.mark("gatherParams");
+        }
 
-        RequestBuilder requestBuilder = KavaService.sendAnalyticsEvent(pluginConfig.getBaseUrl(), params);
-        requestBuilder.completion(new OnRequestCompletion() {
+        if (sinkPipeline != null) {
+            sinkPipeline.publish(params);
+            if (trace != null) {
+                trace.mark("publishToSinks");
+            }
+        }
+
+        RequestBuilder requestBuilder = buildAnalyticsRequest(params);
+        RequestElement requestElement = dispatcherSession.prepare(requestBuilder, new OnRequestCompletion() {
             @Override
             public void onComplete(ResponseElement response) {
+                if (trace != null) {
+                    trace.mark("queueWaitAndNetwork");
+                }
                 log.d("onComplete: " + event.name());
-                if (sessionStartTime == null && response.getResponse() != null) {
-                    sessionStartTime = response.getResponse();
+                if (response.getResponse() != null) {
+                    handleTrackEventResponse(response.getResponse());
                 }
                 messageBus.post(new KavaAnalyticsEvent.KavaAnalyticsReport(event.name()));
+                if (trace != null) {
+                    trace.mark("onComplete");
+                }
+            }
+        });
+        log.d("request sent " + requestElement.getUrl());
+        if (trace != null) {
+            trace.mark("buildUrl");
+        }
+        dispatcherSession.queue(requestElement, trace == null ? null : new Runnable() {
+            @Override
+            public void run() {
+                trace.mark("dispatcherWait");
             }
         });
-        log.d("request sent " + requestBuilder.build().getUrl());
-        requestExecutor.queue(requestBuilder.build());
         eventIndex++;
+        return true;
+    }
+
+    /**
+     * Overridden in tests, so events can be sent without the network stack.
+     */
+    RequestBuilder buildAnalyticsRequest(Map<String, String> params) {
+        return KavaService.sendAnalyticsEvent(pluginConfig.getBaseUrl(), params);
+    }
+
+    /**
+     * trackEvent response is either the plain session start time or Json object
+     * with "time" and optional sampling policy fields.
+     */
+    private void handleTrackEventResponse(String response) {
+        JsonObject responseJson = null;
+        if (response.trim().startsWith("{")) {
+            try {
+                responseJson = new JsonParser().parse(response).getAsJsonObject();
+            } catch (RuntimeException e) {
+                log.w("Failed to parse trackEvent response: " + e.getMessage());
+            }
+        }
+
+        if (responseJson == null) {
+            if (sessionStartTime == null) {
+                sessionStartTime = response;
+            }
+            return;
+        }
+
+        if (sessionStartTime == null && responseJson.has("time")) {
+            sessionStartTime = responseJson.get("time").getAsString();
+        }
+        samplingPolicy.applyServerResponse(responseJson);
     }
 
     private Map<String, String> gatherParams(KavaEvents event) {
@@ -347,14 +526,14 @@ public class KavaAnalyticsPlugin extends PKPlugin {
         }
         Map<String, String> params = new LinkedHashMap<>();
 
-        String sessionId = player.getSessionId() != null ? player.getSessionId() : "";
+        String sessionId = getSessionId();
         params.put("service", "analytics");
         params.put("action", "trackEvent");
         params.put("eventType", Integer.toString(event.getValue()));
         params.put("partnerId", Integer.toString(pluginConfig.getPartnerId()));
         params.put("entryId", mediaConfig.getMediaEntry().getId());
         params.put("sessionId", sessionId);
-        params.put("eventIndex", Integer.toString(eventIndex));
+        params.put("eventIndex", Long.toString(eventIndex));
         params.put("referrer", referrer);
         params.put("deliveryType", deliveryType);
         params.put("playbackType", getPlaybackType(event));
@@ -376,6 +555,10 @@ public class KavaAnalyticsPlugin extends PKPlugin {
                 params.put("bufferTimeSum", Float.toString(totalBufferTimeInSeconds));
                 params.put("actualBitrate", Long.toString(actualBitrate));
 
+                if (event == KavaEvents.VIEW) {
+                    liveLatencyTracker.addViewParams(params, pluginConfig.getLiveEdgeDriftThreshold());
+                }
+
                 if(event == KavaEvents.PLAY) {
                     float joinTime = (System.currentTimeMillis() - joinTimeStartTimestamp) / Consts.MILLISECONDS_MULTIPLIER_FLOAT;
                     params.put("joinTime", Float.toString(joinTime));
@@ -436,38 +619,52 @@ public class KavaAnalyticsPlugin extends PKPlugin {
     private void startAnalyticsTimer() {
         if (viewEventTimer != null) {
             viewEventTimeCounter = 0;
-            viewEventTimer.cancel();
+            viewEventTimer.cancel(false);
             viewEventTimer = null;
         }
-        viewEventTimer = new Timer();
-        viewEventTimer.scheduleAtFixedRate(new TimerTask() {
+        viewEventTimer = viewEventScheduler.scheduleAtFixedRate(new Runnable() {
             @Override
             public void run() {
                 if (!isPaused) {
-                    maybeSendViewEvent();
+                    long tickStartNanos = System.nanoTime();
+                    maybeSampleDistanceFromLive();
+                    maybeSendViewEvent(tickStartNanos);
                     maybeSentPlayerReachedEvent();
                 }
             }
-        }, 0, ONE_SECOND_IN_MS);
+        }, 0, ONE_SECOND_IN_MS, TimeUnit.MILLISECONDS);
     }
 
     private void stopAnalyticsTimer() {
         if (viewEventTimer == null) {
             return;
         }
-        viewEventTimer.cancel();
+        viewEventTimer.cancel(false);
         viewEventTimer = null;
     }
 
-    private void maybeSendViewEvent() {
+    private void maybeSendViewEvent(long tickStartNanos) {
         viewEventTimeCounter += ONE_SECOND_IN_MS;
-        if (viewEventTimeCounter >= TEN_SECONDS_IN_MS) {
-            sendAnalyticsEvent(KavaEvents.VIEW);
+        timeSinceViewEventSent += ONE_SECOND_IN_MS;
+        if (viewEventTimeCounter >= samplingPolicy.getViewEventInterval()) {
+            //When VIEW is dropped by sampling, keep accumulating so the next sent VIEW reports the whole buffer time.
+            if (sendAnalyticsEvent(KavaEvents.VIEW, tickStartNanos, timeSinceViewEventSent)) {
+                totalBufferTimePerViewEvent = 0;
+                timeSinceViewEventSent = 0;
+                liveLatencyTracker.resetInterval();
+            }
             viewEventTimeCounter = 0;
-            totalBufferTimePerViewEvent = 0;
         }
     }
 
+    private void maybeSampleDistanceFromLive() {
+        if (!player.isLive()) {
+            return;
+        }
+        long distanceFromLive = player.getDuration() - player.getCurrentPosition();
+        liveLatencyTracker.sample(distanceFromLive, ONE_SECOND_IN_MS, pluginConfig.getDvrThreshold());
+    }
+
     private void maybeSentPlayerReachedEvent() {
 
         if (player.isLive()) {
@@ -515,6 +712,92 @@ public class KavaAnalyticsPlugin extends PKPlugin {
         lastKnownBufferingTimestamp = currentTime;
     }
 
+    private String getSessionId() {
+        if (resumedSessionId != null) {
+            return resumedSessionId;
+        }
+        return player.getSessionId() != null ? player.getSessionId() : "";
+    }
+
+    private void saveSessionCheckpoint() {
+        String entryId = getCheckpointEntryId();
+        if (entryId == null) {
+            return;
+        }
+
+        KavaSessionCheckpoint.State state = new KavaSessionCheckpoint.State();
+        state.entryId = entryId;
+        state.sessionId = getSessionId();
+        state.sessionStartTime = sessionStartTime;
+        state.isSessionSampled = samplingPolicy.isSessionSampled();
+        state.eventIndex = eventIndex;
+        state.totalBufferTimePerEntry = totalBufferTimePerEntry;
+        state.actualBitrate = actualBitrate;
+        state.isImpressionSent = isImpressionSent;
+        state.isFirstPlay = isFirstPlay;
+        state.playReached25 = playReached25;
+        state.playReached50 = playReached50;
+        state.playReached75 = playReached75;
+        state.playReached100 = playReached100;
+        sessionCheckpoint.save(state);
+        hasSessionCheckpoint = true;
+    }
+
+    private void clearSessionCheckpoint() {
+        String entryId = getCheckpointEntryId();
+        if (entryId == null || !hasSessionCheckpoint) {
+            return;
+        }
+        sessionCheckpoint.clear(entryId);
+        hasSessionCheckpoint = false;
+    }
+
+    /**
+     * @return id of the current entry, or null if there is no checkpoint to save or clear for it.
+     */
+    private String getCheckpointEntryId() {
+        if (sessionCheckpoint == null || mediaConfig == null || mediaConfig.getMediaEntry() == null) {
+            return null;
+        }
+        return mediaConfig.getMediaEntry().getId();
+    }
+
+    /**
+     * Continue the session saved before process death, if it belongs to the same entry.
+     * Only the first media after onLoad can be resumed.
+     */
+    private void maybeResumeSession() {
+        String entryId = getCheckpointEntryId();
+        if (!canResumeFromCheckpoint || entryId == null) {
+            return;
+        }
+        canResumeFromCheckpoint = false;
+
+        KavaSessionCheckpoint.State state = sessionCheckpoint.load(entryId);
+        if (state == null) {
+            return;
+        }
+        //Saved state is on disk either way, so it is cleared as soon as the session continues.
+        hasSessionCheckpoint = true;
+        if (state.isExpired(pluginConfig.getSessionCheckpointMaxAge())) {
+            return;
+        }
+
+        log.d("Resuming Kava session " + state.sessionId + " at eventIndex " + state.eventIndex);
+        resumedSessionId = state.sessionId;
+        sessionStartTime = state.sessionStartTime;
+        samplingPolicy.resumeSession(state.isSessionSampled);
+        eventIndex = state.eventIndex;
+        totalBufferTimePerEntry = state.totalBufferTimePerEntry;
+        actualBitrate = state.actualBitrate;
+        isImpressionSent = state.isImpressionSent;
+        isFirstPlay = state.isFirstPlay;
+        playReached25 = state.playReached25;
+        playReached50 = state.playReached50;
+        playReached75 = state.playReached75;
+        playReached100 = state.playReached100;
+    }
+
     private void updateDeliveryType(PKMediaFormat mediaFormat) {
         if (mediaFormat == PKMediaFormat.dash) {
             deliveryType = FormatsHelper.StreamFormat.MpegDash.formatName;
@@ -566,7 +849,11 @@ public class KavaAnalyticsPlugin extends PKPlugin {
         }
 
         if (player.isLive()) {
-            long distanceFromLive = player.getDuration() - player.getCurrentPosition();
+            //Use the distance sampled on the last timer tick. Fall back to the player while paused or right after seek.
+            long distanceFromLive = liveLatencyTracker.getDistanceFromLive(2 * ONE_SECOND_IN_MS);
+            if (distanceFromLive < 0) {
+                distanceFromLive = player.getDuration() - player.getCurrentPosition();
+            }
             return distanceFromLive >= pluginConfig.getDvrThreshold();
         }
         return false;
@@ -580,6 +867,7 @@ public class KavaAnalyticsPlugin extends PKPlugin {
         actualBitrate = -1;
         totalBufferTimePerEntry = 0;
         totalBufferTimePerViewEvent = 0;
+        timeSinceViewEventSent = 0;
     }
 
     private void resetPlayerReachedFlags() {
@@ -0,0 +1,306 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import com.kaltura.netkit.connect.executor.APIOkRequestsExecutor;
+import com.kaltura.netkit.connect.executor.RequestQueue;
+import com.kaltura.netkit.connect.request.RequestBuilder;
+import com.kaltura.netkit.connect.request.RequestElement;
+import com.kaltura.netkit.connect.response.ResponseElement;
+import com.kaltura.netkit.utils.OnRequestCompletion;
+import com.kaltura.playkit.PKLog;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Process-wide dispatcher shared by all the {@link KavaAnalyticsPlugin} instances.
+ * Each plugin owns a {@link Session} with its own queue. Sessions are served by weighted round-robin,
+ * the foreground session (the one that most recently requested playback) gets its weight boosted,
+ * and the total number of requests in flight on the shared executor is capped.
+ * A request that fails to queue or whose completion does not arrive in time gives its slot back,
+ * so lost requests can never stall the other players.
+ */
+
+class KavaDispatcher {
+
+    private static final PKLog log = PKLog.get(KavaDispatcher.class.getSimpleName());
+
+    private static final int DEFAULT_MAX_IN_FLIGHT = 4;
+    private static final long DEFAULT_REQUEST_TIMEOUT = 60 * 1000;
+    static final int DEFAULT_WEIGHT = 1;
+    private static final int FOREGROUND_BOOST = 4;
+
+    private static KavaDispatcher instance;
+
+    private final RequestQueue requestExecutor;
+    private final long requestTimeout;
+    private final List<Session> sessions = new ArrayList<>();
+    //Request in flight -> time it was handed to the executor.
+    private final Map<RequestElement, Long> inFlightRequests = new IdentityHashMap<>();
+
+    private int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+    private int roundRobinIndex;
+    private int remainingCredit;
+    private Session foregroundSession;
+
+    static synchronized KavaDispatcher getInstance() {
+        if (instance == null) {
+            instance = new KavaDispatcher(APIOkRequestsExecutor.getSingleton());
+        }
+        return instance;
+    }
+
+    KavaDispatcher(RequestQueue requestExecutor) {
+        this(requestExecutor, DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * @param requestTimeout - time in milliseconds after which a request without completion no longer holds its slot.
+     */
+    KavaDispatcher(RequestQueue requestExecutor, long requestTimeout) {
+        this.requestExecutor = requestExecutor;
+        this.requestTimeout = requestTimeout;
+    }
+
+    synchronized int getSessionsCount() {
+        return sessions.size();
+    }
+
+    synchronized int getInFlightCount() {
+        return inFlightRequests.size();
+    }
+
+    synchronized Session openSession() {
+        Session session = new Session();
+        sessions.add(session);
+        return session;
+    }
+
+    /**
+     * Limit is shared by all the players, so the last configured value wins.
+     */
+    void setMaxInFlight(int maxInFlight) {
+        synchronized (this) {
+            this.maxInFlight = Math.max(1, maxInFlight);
+        }
+        dispatch();
+    }
+
+    private void dispatch() {
+        while (true) {
+            List<PendingRequest> ready = new ArrayList<>();
+            synchronized (this) {
+                releaseExpiredRequests();
+                while (inFlightRequests.size() < maxInFlight) {
+                    PendingRequest pendingRequest = nextRequest();
+                    if (pendingRequest == null) {
+                        break;
+                    }
+                    inFlightRequests.put(pendingRequest.requestElement, System.currentTimeMillis());
+                    ready.add(pendingRequest);
+                }
+            }
+
+            boolean slotReleased = false;
+            for (PendingRequest pendingRequest : ready) {
+                if (pendingRequest.onDispatched != null) {
+                    pendingRequest.onDispatched.run();
+                }
+                try {
+                    requestExecutor.queue(pendingRequest.requestElement);
+                } catch (RuntimeException e) {
+                    log.e("Failed to queue Kava request, event is lost: " + e.getMessage());
+                    slotReleased |= releaseRequest(pendingRequest.requestElement);
+                }
+            }
+
+            //Freed slots go to the next pending requests right away.
+            if (!slotReleased) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Checked whenever a request is queued or finished, so a completion that never arrives
+     * holds its slot at most until the next event of any player after the timeout.
+     */
+    private void releaseExpiredRequests() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<RequestElement, Long>> iterator = inFlightRequests.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().getValue() >= requestTimeout) {
+                iterator.remove();
+                log.w("Kava request did not complete within " + requestTimeout + " ms, releasing its slot");
+            }
+        }
+    }
+
+    /**
+     * @return true if the request still held a slot. False if it was already released, for example by the timeout.
+     */
+    private synchronized boolean releaseRequest(RequestElement requestElement) {
+        return inFlightRequests.remove(requestElement) != null;
+    }
+
+    private PendingRequest nextRequest() {
+        if (sessions.isEmpty()) {
+            return null;
+        }
+
+        //One extra visit, so the current session is reconsidered with fresh credit after a full round.
+        for (int visited = 0; visited <= sessions.size(); visited++) {
+            Session session = sessions.get(roundRobinIndex);
+            if (remainingCredit > 0 && !session.pending.isEmpty()) {
+                remainingCredit--;
+                PendingRequest pendingRequest = session.pending.poll();
+                if (session.closed && session.pending.isEmpty()) {
+                    removeSession(session);
+                }
+                return pendingRequest;
+            }
+            roundRobinIndex = (roundRobinIndex + 1) % sessions.size();
+            remainingCredit = getCredit(sessions.get(roundRobinIndex));
+        }
+        return null;
+    }
+
+    private int getCredit(Session session) {
+        return session == foregroundSession ? session.weight * FOREGROUND_BOOST : session.weight;
+    }
+
+    private void removeSession(Session session) {
+        int index = sessions.indexOf(session);
+        if (index < 0) {
+            return;
+        }
+        sessions.remove(index);
+        if (foregroundSession == session) {
+            foregroundSession = null;
+        }
+        if (index < roundRobinIndex) {
+            roundRobinIndex--;
+            return;
+        }
+        if (index == roundRobinIndex) {
+            //Next session takes the turn of the removed one.
+            if (roundRobinIndex >= sessions.size()) {
+                roundRobinIndex = 0;
+            }
+            remainingCredit = sessions.isEmpty() ? 0 : getCredit(sessions.get(roundRobinIndex));
+        }
+    }
+
+    private void onRequestFinished(RequestElement requestElement) {
+        if (releaseRequest(requestElement)) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Queue of a single plugin instance.
+     */
+    class Session {
+
+        private final Queue<PendingRequest> pending = new ArrayDeque<>();
+        private int weight = DEFAULT_WEIGHT;
+        private boolean closed;
+
+        private Session() {
+        }
+
+        void setWeight(int weight) {
+            synchronized (KavaDispatcher.this) {
+                this.weight = Math.max(1, weight);
+            }
+        }
+
+        /**
+         * Give this session the foreground boost, taking it from the session that had it before.
+         */
+        void moveToForeground() {
+            synchronized (KavaDispatcher.this) {
+                foregroundSession = this;
+            }
+        }
+
+        /**
+         * Build the request, so the dispatcher is notified when it completes.
+         */
+        RequestElement prepare(RequestBuilder requestBuilder, OnRequestCompletion completion) {
+            TrackedCompletion trackedCompletion = new TrackedCompletion(completion);
+            requestBuilder.completion(trackedCompletion);
+            trackedCompletion.requestElement = requestBuilder.build();
+            return trackedCompletion.requestElement;
+        }
+
+        /**
+         * @param requestElement - request built with {@link #prepare(RequestBuilder, OnRequestCompletion)}.
+         * @param onDispatched - optional callback, run when the request leaves the dispatcher for the executor.
+         */
+        void queue(RequestElement requestElement, Runnable onDispatched) {
+            synchronized (KavaDispatcher.this) {
+                pending.add(new PendingRequest(requestElement, onDispatched));
+            }
+            dispatch();
+        }
+
+        /**
+         * Requests that are already queued are still sent, then the session is removed.
+         */
+        void close() {
+            synchronized (KavaDispatcher.this) {
+                closed = true;
+                if (pending.isEmpty()) {
+                    removeSession(this);
+                }
+            }
+        }
+    }
+
+    /**
+     * Completion that knows its request, so only the slot of that request is released.
+     */
+    private final class TrackedCompletion implements OnRequestCompletion {
+
+        private final OnRequestCompletion completion;
+        private volatile RequestElement requestElement;
+
+        private TrackedCompletion(OnRequestCompletion completion) {
+            this.completion = completion;
+        }
+
+        @Override
+        public void onComplete(ResponseElement response) {
+            onRequestFinished(requestElement);
+            completion.onComplete(response);
+        }
+    }
+
+    private static final class PendingRequest {
+
+        private final RequestElement requestElement;
+        private final Runnable onDispatched;
+
+        private PendingRequest(RequestElement requestElement, Runnable onDispatched) {
+            this.requestElement = requestElement;
+            this.onDispatched = onDispatched;
+        }
+    }
+}
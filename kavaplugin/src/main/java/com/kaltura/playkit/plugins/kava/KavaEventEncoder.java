@@ -0,0 +1,59 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import android.net.Uri;
+
+import com.google.gson.JsonObject;
+
+import java.util.Map;
+
+/**
+ * Converts Kava event params into the representation expected by a {@link KavaEventSink}.
+ * Encoding runs on the sink worker thread.
+ */
+
+public interface KavaEventEncoder {
+
+    /**
+     * Single line JSON object with all the event params.
+     */
+    KavaEventEncoder JSON = new KavaEventEncoder() {
+        @Override
+        public String encode(Map<String, String> params) {
+            JsonObject event = new JsonObject();
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                event.addProperty(param.getKey(), param.getValue());
+            }
+            return event.toString();
+        }
+    };
+
+    /**
+     * Url encoded query string, same as the one sent to the Kava endpoint except for the ks.
+     */
+    KavaEventEncoder QUERY = new KavaEventEncoder() {
+        @Override
+        public String encode(Map<String, String> params) {
+            Uri.Builder builder = new Uri.Builder();
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                if (param.getValue() != null) {
+                    builder.appendQueryParameter(param.getKey(), param.getValue());
+                }
+            }
+            return builder.build().getEncodedQuery();
+        }
+    };
+
+    String encode(Map<String, String> params);
+}
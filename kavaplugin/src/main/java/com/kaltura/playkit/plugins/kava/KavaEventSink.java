@@ -0,0 +1,36 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import java.io.IOException;
+
+/**
+ * Additional destination for Kava events, registered with {@link KavaAnalyticsConfig#addEventSink(KavaEventSink)}.
+ * Each sink is served by a single worker thread, also when several players register the same sink,
+ * so implementations may block and are never called from more than one thread at a time.
+ * Events never contain the ks, so sinks do not have to protect the Kaltura session credential.
+ */
+
+public interface KavaEventSink {
+
+    /**
+     * @param encodedEvent - event params as produced by the {@link KavaEventEncoder} the sink was registered with.
+     * @throws IOException when the event could not be delivered. The event is dropped and the failure is logged.
+     */
+    void write(String encodedEvent) throws IOException;
+
+    /**
+     * Called once, when the plugin is destroyed or the sink is no longer part of the plugin config.
+     */
+    void close();
+}
@@ -0,0 +1,187 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import android.os.Process;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide collector of Kava event latency spans.
+ * Every sampled event gets its own trace id and one span per pipeline stage
+ * (dispatch, gatherParams, publishToSinks, buildUrl, dispatcherWait, queueWaitAndNetwork, onComplete).
+ * Spans are kept in a fixed size ring buffer, so the oldest ones are overwritten under load.
+ * Use {@link #dumpChromeTrace()} to get the content in Chrome trace-event format (chrome://tracing, Perfetto).
+ * Stages of one event run on different threads and events overlap under load, so every trace is written
+ * as async events on a track of its own instead of on the thread track.
+ */
+
+public final class KavaEventTracer {
+
+    private static final int DEFAULT_BUFFER_SIZE = 2048;
+
+    private static final KavaEventTracer instance = new KavaEventTracer(DEFAULT_BUFFER_SIZE);
+
+    private final AtomicLong traceIdGenerator = new AtomicLong();
+    private final Random random = new Random();
+
+    private Span[] spans;
+    private int nextSpanIndex;
+    private int spansCount;
+
+    public static KavaEventTracer getInstance() {
+        return instance;
+    }
+
+    private KavaEventTracer(int bufferSize) {
+        this.spans = new Span[bufferSize];
+    }
+
+    /**
+     * Start a new trace if the event was sampled.
+     * @param eventName - name of the traced event.
+     * @param startNanos - {@link System#nanoTime()} when the event entered the plugin.
+     * @param sampleRate - value between 0 (nothing traced) and 1 (every event traced).
+     * @return trace to mark stages on, or null when the event was not sampled.
+     */
+    Trace startTrace(String eventName, long startNanos, float sampleRate) {
+        if (sampleRate <= 0 || (sampleRate < 1 && random.nextFloat() >= sampleRate)) {
+            return null;
+        }
+        return new Trace(traceIdGenerator.incrementAndGet(), eventName, startNanos);
+    }
+
+    /**
+     * Change the capacity of the ring buffer. Already collected spans are dropped.
+     */
+    public synchronized void setBufferSize(int bufferSize) {
+        if (bufferSize <= 0 || bufferSize == spans.length) {
+            return;
+        }
+        spans = new Span[bufferSize];
+        nextSpanIndex = 0;
+        spansCount = 0;
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < spans.length; i++) {
+            spans[i] = null;
+        }
+        nextSpanIndex = 0;
+        spansCount = 0;
+    }
+
+    /**
+     * @return all the spans currently held in the ring buffer, oldest first,
+     * as Chrome trace-event JSON ({"traceEvents": [...]}). Every span is an async begin/end pair with the trace id as id.
+     */
+    public String dumpChromeTrace() {
+        Span[] snapshot;
+        synchronized (this) {
+            snapshot = new Span[spansCount];
+            int firstIndex = (nextSpanIndex - spansCount + spans.length) % spans.length;
+            for (int i = 0; i < spansCount; i++) {
+                snapshot[i] = spans[(firstIndex + i) % spans.length];
+            }
+        }
+
+        int pid = Process.myPid();
+        JsonArray traceEvents = new JsonArray();
+        for (Span span : snapshot) {
+            JsonObject args = new JsonObject();
+            args.addProperty("event", span.eventName);
+            //Stage ends on this thread, it may have started on another one.
+            args.addProperty("endThreadId", span.threadId);
+
+            traceEvents.add(createAsyncEvent(span, "b", span.startNanos, pid, args));
+            traceEvents.add(createAsyncEvent(span, "e", span.endNanos, pid, null));
+        }
+
+        JsonObject root = new JsonObject();
+        root.add("traceEvents", traceEvents);
+        return root.toString();
+    }
+
+    private static JsonObject createAsyncEvent(Span span, String phase, long timestampNanos, int pid, JsonObject args) {
+        JsonObject traceEvent = new JsonObject();
+        traceEvent.addProperty("name", span.stage);
+        traceEvent.addProperty("cat", "kava");
+        traceEvent.addProperty("ph", phase);
+        traceEvent.addProperty("id", span.traceId);
+        traceEvent.addProperty("ts", timestampNanos / 1000);
+        traceEvent.addProperty("pid", pid);
+        traceEvent.addProperty("tid", span.threadId);
+        if (args != null) {
+            traceEvent.add("args", args);
+        }
+        return traceEvent;
+    }
+
+    private synchronized void record(Span span) {
+        spans[nextSpanIndex] = span;
+        nextSpanIndex = (nextSpanIndex + 1) % spans.length;
+        if (spansCount < spans.length) {
+            spansCount++;
+        }
+    }
+
+    /**
+     * Single sampled event. Stages are expected to be sequential,
+     * so each call to {@link #mark(String)} closes the span that started at the previous mark.
+     */
+    final class Trace {
+
+        private final long traceId;
+        private final String eventName;
+        private long lastMarkNanos;
+
+        private Trace(long traceId, String eventName, long startNanos) {
+            this.traceId = traceId;
+            this.eventName = eventName;
+            this.lastMarkNanos = startNanos;
+        }
+
+        long getTraceId() {
+            return traceId;
+        }
+
+        synchronized void mark(String stage) {
+            long now = System.nanoTime();
+            record(new Span(traceId, eventName, stage, lastMarkNanos, now, Thread.currentThread().getId()));
+            lastMarkNanos = now;
+        }
+    }
+
+    private static final class Span {
+
+        private final long traceId;
+        private final String eventName;
+        private final String stage;
+        private final long startNanos;
+        private final long endNanos;
+        private final long threadId;
+
+        private Span(long traceId, String eventName, String stage, long startNanos, long endNanos, long threadId) {
+            this.traceId = traceId;
+            this.eventName = eventName;
+            this.stage = stage;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+            this.threadId = threadId;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import com.kaltura.playkit.PKLog;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Appends every event as a separate line to a local file.
+ */
+
+public class KavaFileSink implements KavaEventSink {
+
+    private static final PKLog log = PKLog.get(KavaFileSink.class.getSimpleName());
+
+    private final File file;
+    private Writer writer;
+
+    public KavaFileSink(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void write(String encodedEvent) throws IOException {
+        if (writer == null) {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        }
+        writer.write(encodedEvent);
+        writer.write('\n');
+        writer.flush();
+    }
+
+    @Override
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.w("Failed to close " + file + ": " + e.getMessage());
+        }
+        writer = null;
+    }
+}
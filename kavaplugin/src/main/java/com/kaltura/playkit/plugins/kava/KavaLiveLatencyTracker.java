@@ -0,0 +1,153 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import com.kaltura.playkit.utils.Consts;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Samples the distance from the live edge once per analytics timer tick.
+ * The latest sample is cached for the playbackType decision, and the samples of the current VIEW interval
+ * are summarized (min, average, p95, time in DVR and live edge drift) into the next VIEW event.
+ * All the summaries cover the whole interval. Min and average use every sample, p95 uses an evenly spaced subset
+ * of them when the interval has more samples than the buffer can keep (for example while VIEW events are disabled).
+ */
+
+class KavaLiveLatencyTracker {
+
+    //Every sample of a 10 minutes interval with 1 second ticks. Longer intervals keep every 2nd, 4th... sample.
+    private static final int MAX_SAMPLES = 600;
+    private static final float P95 = 0.95f;
+
+    private final long[] samples = new long[MAX_SAMPLES];
+    private int samplesCount;
+    private int sampleStride;
+
+    private long minDistance;
+    private long distanceSum;
+    private long distanceCount;
+    private long timeInDvr;
+    private long driftBaseline = -1;
+    private long maxDrift;
+
+    private long lastDistance = -1;
+    private long lastSampleTimestamp;
+
+    KavaLiveLatencyTracker() {
+        resetInterval();
+    }
+
+    synchronized void sample(long distanceFromLive, long tickDuration, long dvrThreshold) {
+        if (distanceFromLive < 0) {
+            distanceFromLive = 0;
+        }
+
+        lastDistance = distanceFromLive;
+        lastSampleTimestamp = System.currentTimeMillis();
+
+        if (distanceCount % sampleStride == 0) {
+            if (samplesCount == MAX_SAMPLES) {
+                //Buffer is full exactly at a multiple of the doubled stride, so this sample is kept as well.
+                decimateSamples();
+            }
+            samples[samplesCount++] = distanceFromLive;
+        }
+
+        minDistance = Math.min(minDistance, distanceFromLive);
+        distanceSum += distanceFromLive;
+        distanceCount++;
+        if (distanceFromLive >= dvrThreshold) {
+            timeInDvr += tickDuration;
+        }
+
+        if (driftBaseline < 0) {
+            driftBaseline = distanceFromLive;
+        }
+        maxDrift = Math.max(maxDrift, distanceFromLive - driftBaseline);
+    }
+
+    /**
+     * Keep every other sample and take every other sample from now on, so the buffer still spans the whole interval.
+     */
+    private void decimateSamples() {
+        for (int i = 0; i < MAX_SAMPLES / 2; i++) {
+            samples[i] = samples[i * 2];
+        }
+        samplesCount = MAX_SAMPLES / 2;
+        sampleStride *= 2;
+    }
+
+    /**
+     * @param maxAge - max age of the sample in milliseconds.
+     * @return last sampled distance from the live edge, or -1 if there is no sample that is fresh enough.
+     */
+    synchronized long getDistanceFromLive(long maxAge) {
+        if (lastDistance < 0 || System.currentTimeMillis() - lastSampleTimestamp > maxAge) {
+            return -1;
+        }
+        return lastDistance;
+    }
+
+    /**
+     * Seek moves the position on purpose, so it is not a drift and the cached distance is no longer valid.
+     */
+    synchronized void onSeek() {
+        driftBaseline = -1;
+        lastDistance = -1;
+    }
+
+    /**
+     * Distance grows while paused because the user paused, so drift is measured again from the first sample
+     * after playback resumes. Only growth during active playback (for example rebuffering) counts as drift.
+     */
+    synchronized void onPauseOrResume() {
+        driftBaseline = -1;
+    }
+
+    synchronized void addViewParams(Map<String, String> params, long driftThreshold) {
+        if (distanceCount == 0) {
+            return;
+        }
+
+        long[] sortedSamples = Arrays.copyOf(samples, samplesCount);
+        Arrays.sort(sortedSamples);
+        int p95Index = Math.max(0, (int) Math.ceil(sortedSamples.length * P95) - 1);
+
+        params.put("distanceFromLiveMin", Float.toString(minDistance / Consts.MILLISECONDS_MULTIPLIER_FLOAT));
+        params.put("distanceFromLiveAvg", Float.toString(distanceSum / (float) distanceCount / Consts.MILLISECONDS_MULTIPLIER_FLOAT));
+        params.put("distanceFromLiveP95", Float.toString(sortedSamples[p95Index] / Consts.MILLISECONDS_MULTIPLIER_FLOAT));
+        params.put("timeInDvr", Float.toString(timeInDvr / Consts.MILLISECONDS_MULTIPLIER_FLOAT));
+        params.put("liveEdgeDrift", Boolean.toString(maxDrift >= driftThreshold));
+    }
+
+    /**
+     * Start collecting the next VIEW interval. The cached distance stays valid.
+     */
+    synchronized void resetInterval() {
+        samplesCount = 0;
+        sampleStride = 1;
+        minDistance = Long.MAX_VALUE;
+        distanceSum = 0;
+        distanceCount = 0;
+        timeInDvr = 0;
+        driftBaseline = lastDistance;
+        maxDrift = 0;
+    }
+
+    synchronized void clear() {
+        lastDistance = -1;
+        resetInterval();
+    }
+}
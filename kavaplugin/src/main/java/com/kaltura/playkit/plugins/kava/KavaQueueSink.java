@@ -0,0 +1,47 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import java.io.IOException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * In-memory message queue stand-in. The application consumes events
+ * from {@link #getQueue()} and forwards them to its own ingestion.
+ */
+
+public class KavaQueueSink implements KavaEventSink {
+
+    private final BlockingQueue<String> queue;
+
+    public KavaQueueSink(int capacity) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+    }
+
+    public BlockingQueue<String> getQueue() {
+        return queue;
+    }
+
+    @Override
+    public void write(String encodedEvent) throws IOException {
+        if (!queue.offer(encodedEvent)) {
+            throw new IOException("Queue is full, consumer is not keeping up");
+        }
+    }
+
+    @Override
+    public void close() {
+        // Events that were not consumed yet are left in the queue for the application.
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.kaltura.playkit.PKLog;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides which Kava events are actually sent.
+ * Initial values are taken from {@link KavaAnalyticsConfig} and can be overridden by the trackEvent response.
+ * The session decision is taken once per media and kept until the next media,
+ * so a session sample rate change coming from the server applies only to the next session.
+ * Neither the VIEW interval nor VIEW sampling may leave a gap between sent VIEW events long enough
+ * for the server to reset the session, as the client would keep counting eventIndex and bufferTimeSum.
+ */
+
+class KavaSamplingPolicy {
+
+    private static final PKLog log = PKLog.get(KavaSamplingPolicy.class.getSimpleName());
+
+    private static final String VIEW_EVENT_NAME = "VIEW";
+    //Longest active playback between two sent VIEW events. Leaves a margin below the session timeout for timer and network delays.
+    static final long MAX_VIEW_EVENT_GAP = KavaAnalyticsConfig.KAVA_SESSION_TIMEOUT * 2 / 3;
+
+    private final Random random = new Random();
+
+    private volatile float sessionSampleRate = 1;
+    private volatile long viewEventInterval = KavaAnalyticsConfig.DEFAULT_VIEW_EVENT_INTERVAL;
+    private volatile boolean viewEventsEnabled = true;
+    private volatile Map<String, Float> eventSampleRates = new HashMap<>();
+    private volatile boolean sessionSampled = true;
+
+    void applyConfig(KavaAnalyticsConfig config) {
+        sessionSampleRate = config.getSessionSampleRate();
+        viewEventInterval = limitViewEventInterval(config.getViewEventInterval());
+        eventSampleRates = new HashMap<>(config.getEventSampleRates());
+    }
+
+    /**
+     * Server response may carry "viewEventsEnabled", "sessionSampleRate",
+     * "viewEventInterval" (milliseconds) and "eventSampleRates" (event name to rate).
+     */
+    void applyServerResponse(JsonObject response) {
+        try {
+            if (response.has("viewEventsEnabled")) {
+                viewEventsEnabled = response.get("viewEventsEnabled").getAsBoolean();
+            }
+            if (response.has("sessionSampleRate")) {
+                sessionSampleRate = response.get("sessionSampleRate").getAsFloat();
+            }
+            if (response.has("viewEventInterval")) {
+                long interval = response.get("viewEventInterval").getAsLong();
+                if (interval > 0) {
+                    viewEventInterval = limitViewEventInterval(interval);
+                }
+            }
+            if (response.has("eventSampleRates") && response.get("eventSampleRates").isJsonObject()) {
+                Map<String, Float> rates = new HashMap<>(eventSampleRates);
+                for (Map.Entry<String, JsonElement> rate : response.getAsJsonObject("eventSampleRates").entrySet()) {
+                    rates.put(rate.getKey(), rate.getValue().getAsFloat());
+                }
+                eventSampleRates = rates;
+            }
+        } catch (RuntimeException e) {
+            log.w("Failed to apply sampling policy from server response: " + e.getMessage());
+        }
+    }
+
+    void startSession() {
+        sessionSampled = random.nextFloat() < sessionSampleRate;
+    }
+
+    /**
+     * Continue a session that was started before, keeping its sampling decision.
+     */
+    void resumeSession(boolean sessionSampled) {
+        this.sessionSampled = sessionSampled;
+    }
+
+    boolean isSessionSampled() {
+        return sessionSampled;
+    }
+
+    boolean shouldSend(String eventName) {
+        return shouldSend(eventName, 0);
+    }
+
+    /**
+     * @param timeSinceViewEventSent - active playback time since the last sent VIEW event, used for VIEW only.
+     * VIEW is sent regardless of its sample rate when dropping it would make the gap longer than {@link #MAX_VIEW_EVENT_GAP}.
+     */
+    boolean shouldSend(String eventName, long timeSinceViewEventSent) {
+        if (!isSessionSampled()) {
+            return false;
+        }
+
+        if (VIEW_EVENT_NAME.equals(eventName)) {
+            //Server disabled VIEW on purpose, so it expects the session to time out.
+            if (!viewEventsEnabled) {
+                return false;
+            }
+            if (timeSinceViewEventSent + viewEventInterval > MAX_VIEW_EVENT_GAP) {
+                return true;
+            }
+        }
+
+        Float eventSampleRate = eventSampleRates.get(eventName);
+        return eventSampleRate == null || eventSampleRate >= 1 || random.nextFloat() < eventSampleRate;
+    }
+
+    long getViewEventInterval() {
+        return viewEventInterval;
+    }
+
+    private static long limitViewEventInterval(long interval) {
+        if (interval > MAX_VIEW_EVENT_GAP) {
+            log.w("viewEventInterval " + interval + " is longer than the Kava session timeout allows, using " + MAX_VIEW_EVENT_GAP);
+            return MAX_VIEW_EVENT_GAP;
+        }
+        return interval;
+    }
+}
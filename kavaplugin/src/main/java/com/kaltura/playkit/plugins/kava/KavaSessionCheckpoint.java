@@ -0,0 +1,222 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.kaltura.playkit.PKLog;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Persists Kava session state, so the session can continue after the process was killed in background.
+ * All the players share one preferences file, so every value is keyed by the entry it belongs to
+ * and each player only touches the keys of its own entry.
+ * Writes are committed on a background thread shared by all the players. {@link SharedPreferences.Editor#apply()}
+ * is not used, because Android waits for pending apply() writes on the main thread when an activity pauses or stops,
+ * which is exactly when the checkpoint is saved.
+ */
+
+class KavaSessionCheckpoint {
+
+    private static final PKLog log = PKLog.get(KavaSessionCheckpoint.class.getSimpleName());
+
+    private static final ExecutorService sharedWriteExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "KavaCheckpoint");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private static final String PREFERENCES_NAME = "kava_session_checkpoint";
+    private static final String KEY_SEPARATOR = "|";
+
+    private static final String KEY_SESSION_ID = "sessionId";
+    private static final String KEY_SESSION_START_TIME = "sessionStartTime";
+    private static final String KEY_SESSION_SAMPLED = "isSessionSampled";
+    private static final String KEY_EVENT_INDEX = "eventIndex";
+    private static final String KEY_TOTAL_BUFFER_TIME = "totalBufferTimePerEntry";
+    private static final String KEY_ACTUAL_BITRATE = "actualBitrate";
+    private static final String KEY_IMPRESSION_SENT = "isImpressionSent";
+    private static final String KEY_FIRST_PLAY = "isFirstPlay";
+    private static final String KEY_PLAY_REACHED_25 = "playReached25";
+    private static final String KEY_PLAY_REACHED_50 = "playReached50";
+    private static final String KEY_PLAY_REACHED_75 = "playReached75";
+    private static final String KEY_PLAY_REACHED_100 = "playReached100";
+    private static final String KEY_SAVED_AT = "savedAt";
+
+    private final SharedPreferences preferences;
+    private final Executor writeExecutor;
+
+    KavaSessionCheckpoint(Context context) {
+        this(context, sharedWriteExecutor);
+    }
+
+    /**
+     * @param writeExecutor - executor that commits the writes, in the order they were requested.
+     */
+    KavaSessionCheckpoint(Context context, Executor writeExecutor) {
+        this.preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+        this.writeExecutor = writeExecutor;
+    }
+
+    void save(final State state) {
+        final long savedAt = System.currentTimeMillis();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                commit(createSaveEditor(state, savedAt));
+            }
+        });
+    }
+
+    private SharedPreferences.Editor createSaveEditor(State state, long savedAt) {
+        String entryId = state.entryId;
+        SharedPreferences.Editor editor = preferences.edit();
+        if (state.sessionId != null) {
+            editor.putString(key(entryId, KEY_SESSION_ID), state.sessionId);
+        } else {
+            editor.remove(key(entryId, KEY_SESSION_ID));
+        }
+        if (state.sessionStartTime != null) {
+            editor.putString(key(entryId, KEY_SESSION_START_TIME), state.sessionStartTime);
+        } else {
+            editor.remove(key(entryId, KEY_SESSION_START_TIME));
+        }
+        editor.putBoolean(key(entryId, KEY_SESSION_SAMPLED), state.isSessionSampled);
+        editor.putLong(key(entryId, KEY_EVENT_INDEX), state.eventIndex);
+        editor.putLong(key(entryId, KEY_TOTAL_BUFFER_TIME), state.totalBufferTimePerEntry);
+        editor.putLong(key(entryId, KEY_ACTUAL_BITRATE), state.actualBitrate);
+        editor.putBoolean(key(entryId, KEY_IMPRESSION_SENT), state.isImpressionSent);
+        editor.putBoolean(key(entryId, KEY_FIRST_PLAY), state.isFirstPlay);
+        editor.putBoolean(key(entryId, KEY_PLAY_REACHED_25), state.playReached25);
+        editor.putBoolean(key(entryId, KEY_PLAY_REACHED_50), state.playReached50);
+        editor.putBoolean(key(entryId, KEY_PLAY_REACHED_75), state.playReached75);
+        editor.putBoolean(key(entryId, KEY_PLAY_REACHED_100), state.playReached100);
+        editor.putLong(key(entryId, KEY_SAVED_AT), savedAt);
+        return editor;
+    }
+
+    /**
+     * Reads on the calling thread. Writes that are still waiting for the write thread are not visible yet.
+     * @return saved state of the entry or null if there is nothing to resume.
+     */
+    State load(String entryId) {
+        if (!preferences.contains(key(entryId, KEY_SAVED_AT))) {
+            return null;
+        }
+
+        State state = new State();
+        state.entryId = entryId;
+        state.sessionId = preferences.getString(key(entryId, KEY_SESSION_ID), null);
+        state.sessionStartTime = preferences.getString(key(entryId, KEY_SESSION_START_TIME), null);
+        state.isSessionSampled = preferences.getBoolean(key(entryId, KEY_SESSION_SAMPLED), true);
+        state.eventIndex = preferences.getLong(key(entryId, KEY_EVENT_INDEX), 1);
+        state.totalBufferTimePerEntry = preferences.getLong(key(entryId, KEY_TOTAL_BUFFER_TIME), 0);
+        state.actualBitrate = preferences.getLong(key(entryId, KEY_ACTUAL_BITRATE), -1);
+        state.isImpressionSent = preferences.getBoolean(key(entryId, KEY_IMPRESSION_SENT), false);
+        state.isFirstPlay = preferences.getBoolean(key(entryId, KEY_FIRST_PLAY), true);
+        state.playReached25 = preferences.getBoolean(key(entryId, KEY_PLAY_REACHED_25), false);
+        state.playReached50 = preferences.getBoolean(key(entryId, KEY_PLAY_REACHED_50), false);
+        state.playReached75 = preferences.getBoolean(key(entryId, KEY_PLAY_REACHED_75), false);
+        state.playReached100 = preferences.getBoolean(key(entryId, KEY_PLAY_REACHED_100), false);
+        state.savedAt = preferences.getLong(key(entryId, KEY_SAVED_AT), 0);
+        return state;
+    }
+
+    /**
+     * Remove the saved state of the given entry only.
+     */
+    void clear(final String entryId) {
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                SharedPreferences.Editor editor = preferences.edit();
+                removeEntry(editor, entryId);
+                commit(editor);
+            }
+        });
+    }
+
+    /**
+     * Remove the states of all the entries that can no longer be resumed, for example left by a player that was killed.
+     */
+    void removeExpired(final long maxAge) {
+        final long now = System.currentTimeMillis();
+        writeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String savedAtSuffix = KEY_SEPARATOR + KEY_SAVED_AT;
+                SharedPreferences.Editor editor = preferences.edit();
+                for (Map.Entry<String, ?> value : preferences.getAll().entrySet()) {
+                    String key = value.getKey();
+                    if (key.endsWith(savedAtSuffix) && value.getValue() instanceof Long && now - (Long) value.getValue() > maxAge) {
+                        removeEntry(editor, key.substring(0, key.length() - savedAtSuffix.length()));
+                    }
+                }
+                commit(editor);
+            }
+        });
+    }
+
+    private void removeEntry(SharedPreferences.Editor editor, String entryId) {
+        String prefix = entryId + KEY_SEPARATOR;
+        for (String key : preferences.getAll().keySet()) {
+            if (key.startsWith(prefix)) {
+                editor.remove(key);
+            }
+        }
+    }
+
+    private static void commit(SharedPreferences.Editor editor) {
+        if (!editor.commit()) {
+            log.w("Failed to write Kava session checkpoint");
+        }
+    }
+
+    private static String key(String entryId, String field) {
+        return entryId + KEY_SEPARATOR + field;
+    }
+
+    /**
+     * Plugin session state that survives process death.
+     */
+    static final class State {
+
+        String entryId;
+        String sessionId;
+        String sessionStartTime;
+        boolean isSessionSampled;
+        long eventIndex;
+        long totalBufferTimePerEntry;
+        long actualBitrate;
+        boolean isImpressionSent;
+        boolean isFirstPlay;
+        boolean playReached25;
+        boolean playReached50;
+        boolean playReached75;
+        boolean playReached100;
+        long savedAt;
+
+        boolean isExpired(long maxAge) {
+            return System.currentTimeMillis() - savedAt > maxAge;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import com.kaltura.playkit.PKLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans Kava events out to the additional sinks registered in {@link KavaAnalyticsConfig}.
+ * Every sink is served by a single worker thread with a bounded queue, shared by all the players that registered it.
+ * When a queue is full the event is dropped for that sink only, so a slow or failing sink never blocks
+ * the player thread, the Kava endpoint or the other sinks.
+ * The worker is released when the last player using the sink stops, after draining what is still queued.
+ * The Kaltura session (ks) is a credential, so it is never handed to the sinks.
+ */
+
+class KavaSinkPipeline {
+
+    private static final PKLog log = PKLog.get(KavaSinkPipeline.class.getSimpleName());
+
+    static final int DEFAULT_QUEUE_CAPACITY = 100;
+    private static final String KS_PARAM = "ks";
+    private static final long DRAIN_TIMEOUT_MS = 5000;
+
+    //Marks the end of the queue for a worker that is blocked waiting for events.
+    private static final Map<String, String> STOP = new HashMap<>();
+
+    private static final Map<KavaEventSink, SinkWorker> activeWorkers = new IdentityHashMap<>();
+    private static int workerCounter;
+
+    private final List<Registration> registrations;
+    private final List<SinkWorker> workers = new ArrayList<>();
+
+    KavaSinkPipeline(List<Registration> registrations) {
+        this.registrations = registrations;
+        for (Registration registration : registrations) {
+            if (!isServingSink(registration.sink)) {
+                workers.add(acquireWorker(registration));
+            }
+        }
+    }
+
+    private boolean isServingSink(KavaEventSink sink) {
+        for (SinkWorker worker : workers) {
+            if (worker.registration.sink == sink) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static synchronized int getActiveWorkersCount() {
+        return activeWorkers.size();
+    }
+
+    /**
+     * Sink that is already served keeps the encoder and queue capacity it was first registered with.
+     */
+    private static synchronized SinkWorker acquireWorker(Registration registration) {
+        SinkWorker worker = activeWorkers.get(registration.sink);
+        if (worker == null || worker.closing) {
+            //Worker that is closing the sink may still be inside close(), so the new one waits for it before writing.
+            worker = new SinkWorker(registration, "KavaSink-" + workerCounter++, worker);
+            activeWorkers.put(registration.sink, worker);
+            worker.start();
+        } else if (worker.users == 0) {
+            //Worker is still draining, so it continues serving the sink instead of a second thread writing to it.
+            worker.running = true;
+        }
+        worker.users++;
+        return worker;
+    }
+
+    private static synchronized void releaseWorker(SinkWorker worker) {
+        worker.users--;
+        if (worker.users == 0) {
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * @return true if the worker is no longer used, so it can close the sink. It stays registered until the sink is closed.
+     */
+    private static synchronized boolean finishWorker(SinkWorker worker) {
+        if (worker.users > 0) {
+            return false;
+        }
+        worker.closing = true;
+        return true;
+    }
+
+    private static synchronized void unregisterWorker(SinkWorker worker) {
+        if (activeWorkers.get(worker.registration.sink) == worker) {
+            activeWorkers.remove(worker.registration.sink);
+        }
+    }
+
+    boolean isServing(List<Registration> registrations) {
+        return this.registrations.equals(registrations);
+    }
+
+    /**
+     * Hand the event over to all the sinks, without the ks. Never blocks.
+     */
+    void publish(Map<String, String> params) {
+        Map<String, String> eventParams = new LinkedHashMap<>(params);
+        eventParams.remove(KS_PARAM);
+        Map<String, String> event = Collections.unmodifiableMap(eventParams);
+        for (SinkWorker worker : workers) {
+            worker.offer(event);
+        }
+    }
+
+    /**
+     * Release the sinks of this pipeline. Does not block, events that are already queued are still written.
+     */
+    void shutdown() {
+        for (SinkWorker worker : workers) {
+            releaseWorker(worker);
+        }
+        workers.clear();
+    }
+
+    /**
+     * Sink together with the way its events are encoded and buffered.
+     */
+    static final class Registration {
+
+        final KavaEventSink sink;
+        final KavaEventEncoder encoder;
+        final int queueCapacity;
+
+        Registration(KavaEventSink sink, KavaEventEncoder encoder, int queueCapacity) {
+            this.sink = sink;
+            this.encoder = encoder;
+            this.queueCapacity = queueCapacity;
+        }
+    }
+
+    private static final class SinkWorker extends Thread {
+
+        private final Registration registration;
+        private final BlockingQueue<Map<String, String>> queue;
+        private final AtomicLong droppedEvents = new AtomicLong();
+        private volatile boolean running = true;
+        private volatile long drainDeadline;
+        //Worker that served the same sink before, it must finish closing the sink before this one writes.
+        private SinkWorker previousWorker;
+        //Guarded by KavaSinkPipeline.class.
+        private int users;
+        private boolean closing;
+
+        private SinkWorker(Registration registration, String name, SinkWorker previousWorker) {
+            super(name);
+            this.registration = registration;
+            this.previousWorker = previousWorker;
+            this.queue = new ArrayBlockingQueue<>(Math.max(1, registration.queueCapacity));
+            setDaemon(true);
+        }
+
+        private void offer(Map<String, String> event) {
+            if (!queue.offer(event)) {
+                long dropped = droppedEvents.incrementAndGet();
+                if (dropped == 1 || dropped % DEFAULT_QUEUE_CAPACITY == 0) {
+                    log.w(getName() + " queue is full, dropped events: " + dropped);
+                }
+            }
+        }
+
+        private void shutdown() {
+            drainDeadline = System.currentTimeMillis() + DRAIN_TIMEOUT_MS;
+            running = false;
+            //If the queue is full the worker is not blocked and will see running == false after the next event.
+            queue.offer(STOP);
+        }
+
+        @Override
+        public void run() {
+            awaitPreviousWorker();
+            while (true) {
+                Map<String, String> event = nextEvent();
+                if (event == null) {
+                    if (finishWorker(this)) {
+                        break;
+                    }
+                    continue;
+                }
+
+                if (event == STOP) {
+                    continue;
+                }
+
+                try {
+                    registration.sink.write(registration.encoder.encode(event));
+                } catch (Exception e) {
+                    log.e(getName() + " failed to write event: " + e.getMessage());
+                }
+            }
+            registration.sink.close();
+            unregisterWorker(this);
+        }
+
+        private void awaitPreviousWorker() {
+            if (previousWorker == null) {
+                return;
+            }
+            try {
+                previousWorker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            //Do not keep the chain of all the workers that ever served the sink.
+            previousWorker = null;
+        }
+
+        /**
+         * @return next event, or null when the worker was shut down and the queue is drained or the drain timed out.
+         */
+        private Map<String, String> nextEvent() {
+            if (running) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    return null;
+                }
+            }
+
+            if (System.currentTimeMillis() > drainDeadline) {
+                if (!queue.isEmpty()) {
+                    log.w(getName() + " drain timeout, dropped queued events");
+                    queue.clear();
+                }
+                return null;
+            }
+            return queue.poll();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import com.kaltura.netkit.connect.executor.RequestQueue;
+import com.kaltura.netkit.connect.request.RequestElement;
+import com.kaltura.netkit.connect.response.ResponseElement;
+
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Request executor that never touches the network. Requests either complete as soon as they are queued,
+ * or stay outstanding until the test completes them.
+ */
+
+class FakeRequestQueue implements Answer<Object> {
+
+    private final boolean completeImmediately;
+    private final ResponseElement response = mock(ResponseElement.class, withSettings().stubOnly());
+    private final RequestQueue requestQueue = mock(RequestQueue.class, withSettings().stubOnly().defaultAnswer(this));
+
+    private final List<RequestElement> outstanding = new ArrayList<>();
+    private final List<String> sentUrls = new ArrayList<>();
+    private int maxOutstanding;
+    private RuntimeException queueFailure;
+
+    /**
+     * @param completeImmediately - complete every request right away. Sent requests are not recorded in this mode,
+     *                            so the fake does not grow in long running tests.
+     */
+    FakeRequestQueue(boolean completeImmediately) {
+        this.completeImmediately = completeImmediately;
+    }
+
+    RequestQueue getRequestQueue() {
+        return requestQueue;
+    }
+
+    synchronized void setQueueFailure(RuntimeException queueFailure) {
+        this.queueFailure = queueFailure;
+    }
+
+    synchronized List<String> getSentUrls() {
+        return new ArrayList<>(sentUrls);
+    }
+
+    synchronized List<RequestElement> getOutstanding() {
+        return new ArrayList<>(outstanding);
+    }
+
+    synchronized int getMaxOutstanding() {
+        return maxOutstanding;
+    }
+
+    /**
+     * @return false if there was no outstanding request.
+     */
+    boolean completeNext() {
+        RequestElement requestElement;
+        synchronized (this) {
+            if (outstanding.isEmpty()) {
+                return false;
+            }
+            requestElement = outstanding.get(0);
+        }
+        complete(requestElement);
+        return true;
+    }
+
+    void complete(RequestElement requestElement) {
+        synchronized (this) {
+            outstanding.remove(requestElement);
+        }
+        requestElement.onComplete(response);
+    }
+
+    @Override
+    public Object answer(InvocationOnMock invocation) throws Throwable {
+        if (invocation.getMethod().getName().equals("queue")) {
+            RequestElement requestElement = (RequestElement) invocation.getArguments()[0];
+            if (completeImmediately) {
+                requestElement.onComplete(response);
+            } else {
+                onQueued(requestElement);
+            }
+        }
+        return RETURNS_DEFAULTS.answer(invocation);
+    }
+
+    private synchronized void onQueued(RequestElement requestElement) {
+        sentUrls.add(requestElement.getUrl());
+        if (queueFailure != null) {
+            throw queueFailure;
+        }
+        outstanding.add(requestElement);
+        maxOutstanding = Math.max(maxOutstanding, outstanding.size());
+    }
+}
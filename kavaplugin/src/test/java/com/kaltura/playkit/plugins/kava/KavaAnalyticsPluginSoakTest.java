@@ -0,0 +1,337 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import android.content.Context;
+
+import com.kaltura.netkit.connect.request.RequestBuilder;
+import com.kaltura.playkit.MessageBus;
+import com.kaltura.playkit.PKEvent;
+import com.kaltura.playkit.PKMediaConfig;
+import com.kaltura.playkit.PKMediaEntry;
+import com.kaltura.playkit.Player;
+import com.kaltura.playkit.PlayerEvent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Runs the plugin through days of simulated live playback on a virtual clock and checks that nothing
+ * grows with the session length: threads, retained heap, dispatcher sessions, sink workers and scheduled timers.
+ * Mocks are stub only, so they do not record the millions of calls made by the plugin.
+ * The virtual clock drives only the view timer. Buffer time, join time and the live distance staleness check
+ * read wall time, so their values are not checked here.
+ */
+
+public class KavaAnalyticsPluginSoakTest {
+
+    private static final long ONE_SECOND = 1000;
+    private static final long ONE_MINUTE = 60 * ONE_SECOND;
+    private static final long ONE_HOUR = 60 * ONE_MINUTE;
+    private static final long ONE_DAY = 24 * ONE_HOUR;
+
+    private static final long SIMULATED_PLAYBACK = 3 * ONE_DAY;
+    private static final long PAUSE_CYCLE = 2 * ONE_MINUTE;
+    private static final long PAUSE_DURATION = 20 * ONE_SECOND;
+    private static final long MEDIA_SWITCH_INTERVAL = 30 * ONE_MINUTE;
+    private static final long PLUGIN_LIFETIME = ONE_DAY;
+
+    private static final long LIVE_WINDOW = 2 * ONE_HOUR;
+    private static final long LIVE_OFFSET = 5 * ONE_SECOND;
+    private static final int SINK_QUEUE_CAPACITY = 1 << 16;
+    private static final long SINK_DRAIN_TIMEOUT = 10 * ONE_SECOND;
+    private static final long HEAP_GROWTH_MARGIN = 16 * 1024 * 1024;
+
+    private KavaDispatcher dispatcher;
+    private EventIndexSink sink;
+    private KavaAnalyticsConfig config;
+
+    private KavaAnalyticsPlugin plugin;
+    private PKEvent.Listener eventListener;
+    private int entryCounter;
+
+    @Before
+    public void setUp() {
+        //Requests complete right away, as if the network was instant.
+        dispatcher = new KavaDispatcher(new FakeRequestQueue(true).getRequestQueue());
+        sink = new EventIndexSink();
+        config = new KavaAnalyticsConfig()
+                .setPartnerId(1)
+                .addEventSink(sink, new KavaEventEncoder() {
+                    @Override
+                    public String encode(Map<String, String> params) {
+                        return params.get("entryId") + "|" + params.get("eventIndex");
+                    }
+                }, SINK_QUEUE_CAPACITY);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (plugin != null) {
+            plugin.onDestroy();
+            plugin = null;
+        }
+        awaitSinkWorkersFinished();
+    }
+
+    @Test
+    public void longLiveSessionStaysBounded() throws InterruptedException {
+        ManualScheduledExecutor scheduler = new ManualScheduledExecutor();
+        List<WeakReference<KavaAnalyticsPlugin>> destroyedPlugins = new ArrayList<>();
+        int threadsBaseline = -1;
+        long heapBaseline = -1;
+        int pauseCycle = 0;
+
+        for (long time = 0; time < SIMULATED_PLAYBACK; time += ONE_SECOND) {
+            if (time % PLUGIN_LIFETIME == 0) {
+                if (plugin != null) {
+                    plugin.onDestroy();
+                    destroyedPlugins.add(new WeakReference<>(plugin));
+                }
+                loadPlugin(scheduler);
+                loadMedia();
+            } else if (time % MEDIA_SWITCH_INTERVAL == 0) {
+                loadMedia();
+            }
+
+            long timeInCycle = time % PAUSE_CYCLE;
+            if (timeInCycle == PAUSE_CYCLE - PAUSE_DURATION) {
+                pause(pauseCycle % 2 == 0);
+            } else if (timeInCycle == 0 && time > 0) {
+                resume(pauseCycle % 2 == 0);
+                pauseCycle++;
+            }
+
+            scheduler.advanceBy(ONE_SECOND);
+
+            if (time % ONE_HOUR == 0) {
+                //First hour warms up the worker threads and JVM internals.
+                if (time == ONE_HOUR) {
+                    threadsBaseline = Thread.activeCount();
+                    heapBaseline = getUsedHeapAfterGc();
+                }
+                assertBounded(scheduler, threadsBaseline, heapBaseline);
+            }
+        }
+
+        plugin.onDestroy();
+        destroyedPlugins.add(new WeakReference<>(plugin));
+        plugin = null;
+        eventListener = null;
+        assertEquals(0, dispatcher.getSessionsCount());
+        assertEquals(0, scheduler.getScheduledTasksCount());
+
+        awaitSinkWorkersFinished();
+        assertNull(sink.getFailure());
+        assertTrue("expected at least one VIEW every 10 seconds of playback", sink.getEventsCount() > SIMULATED_PLAYBACK / (10 * ONE_SECOND) / 2);
+
+        for (int attempt = 0; attempt < 10 && !allCollected(destroyedPlugins); attempt++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        assertTrue("destroyed plugins are still retained", allCollected(destroyedPlugins));
+    }
+
+    @Test
+    public void pauseResumeCyclesDoNotCreateThreads() throws InterruptedException {
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        config.setViewEventInterval(ONE_SECOND);
+        try {
+            loadPlugin(scheduler);
+            loadMedia();
+            eventListener.onEvent(new PlayerEvent.Generic(PlayerEvent.Type.LOADED_METADATA));
+            eventListener.onEvent(new PlayerEvent.Generic(PlayerEvent.Type.PLAYING));
+
+            int threadsBaseline = Thread.activeCount();
+            for (int cycle = 0; cycle < 2000; cycle++) {
+                //Every resume ticks right away on the scheduler thread, so VIEW competes with RESUME and PAUSE for eventIndex.
+                plugin.onApplicationPaused();
+                plugin.onApplicationResumed();
+                eventListener.onEvent(new PlayerEvent.Generic(PlayerEvent.Type.PLAYING));
+                eventListener.onEvent(new PlayerEvent.Generic(PlayerEvent.Type.PAUSE));
+                assertTrue("threads grew on cycle " + cycle, Thread.activeCount() <= threadsBaseline + 1);
+            }
+
+            plugin.onDestroy();
+            plugin = null;
+        } finally {
+            scheduler.shutdown();
+            assertTrue(scheduler.awaitTermination(SINK_DRAIN_TIMEOUT, TimeUnit.MILLISECONDS));
+        }
+
+        awaitSinkWorkersFinished();
+        assertNull(sink.getFailure());
+        assertTrue(sink.getEventsCount() >= 4000);
+        assertEquals(0, dispatcher.getInFlightCount());
+    }
+
+    private void loadPlugin(ScheduledExecutorService scheduler) {
+        Player player = mock(Player.class, withSettings().stubOnly());
+        when(player.isLive()).thenReturn(true);
+        when(player.getDuration()).thenReturn(LIVE_WINDOW);
+        when(player.getCurrentPosition()).thenReturn(LIVE_WINDOW - LIVE_OFFSET);
+        when(player.getSessionId()).thenReturn("soak-session");
+
+        Context context = mock(Context.class, withSettings().stubOnly());
+        when(context.getPackageName()).thenReturn("com.kaltura.playkit.plugins.kava.test");
+
+        MessageBus messageBus = mock(MessageBus.class, withSettings().stubOnly().defaultAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                if (invocation.getMethod().getName().equals("listen")) {
+                    eventListener = (PKEvent.Listener) invocation.getArguments()[0];
+                }
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+        }));
+
+        plugin = new KavaAnalyticsPlugin(scheduler, dispatcher) {
+            @Override
+            RequestBuilder buildAnalyticsRequest(Map<String, String> params) {
+                return new RequestBuilder().method("GET").url("http://localhost/kava");
+            }
+        };
+        plugin.onLoad(player, config, messageBus, context);
+    }
+
+    private void loadMedia() {
+        PKMediaEntry mediaEntry = new PKMediaEntry()
+                .setId("entry-" + entryCounter++)
+                .setMediaType(PKMediaEntry.MediaEntryType.Live);
+        plugin.onUpdateMedia(new PKMediaConfig().setMediaEntry(mediaEntry));
+        eventListener.onEvent(new PlayerEvent.Generic(PlayerEvent.Type.LOADED_METADATA));
+        eventListener.onEvent(new PlayerEvent.Generic(PlayerEvent.Type.PLAY));
+        eventListener.onEvent(new PlayerEvent.Generic(PlayerEvent.Type.PLAYING));
+    }
+
+    private void pause(boolean byUser) {
+        if (byUser) {
+            eventListener.onEvent(new PlayerEvent.Generic(PlayerEvent.Type.PAUSE));
+        } else {
+            plugin.onApplicationPaused();
+        }
+    }
+
+    private void resume(boolean byUser) {
+        if (!byUser) {
+            plugin.onApplicationResumed();
+        }
+        eventListener.onEvent(new PlayerEvent.Generic(PlayerEvent.Type.PLAYING));
+    }
+
+    private void assertBounded(ManualScheduledExecutor scheduler, int threadsBaseline, long heapBaseline) {
+        assertTrue("dispatcher sessions: " + dispatcher.getSessionsCount(), dispatcher.getSessionsCount() <= 1);
+        assertEquals(0, dispatcher.getInFlightCount());
+        assertTrue("sink workers: " + KavaSinkPipeline.getActiveWorkersCount(), KavaSinkPipeline.getActiveWorkersCount() <= 1);
+        assertTrue("view timers: " + scheduler.getScheduledTasksCount(), scheduler.getScheduledTasksCount() <= 1);
+        //A released sink worker may still be exiting while the next plugin starts its own.
+        if (threadsBaseline > 0) {
+            assertTrue("threads: " + Thread.activeCount(), Thread.activeCount() <= threadsBaseline + 1);
+        }
+        if (heapBaseline > 0) {
+            long usedHeap = getUsedHeapAfterGc();
+            assertTrue("heap grew from " + heapBaseline + " to " + usedHeap, usedHeap <= heapBaseline + HEAP_GROWTH_MARGIN);
+        }
+        assertNull(sink.getFailure());
+    }
+
+    private static long getUsedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        //A single System.gc() is only a hint, the lowest of a few readings is close to the retained heap.
+        long usedHeap = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            usedHeap = Math.min(usedHeap, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return usedHeap;
+    }
+
+    private static void awaitSinkWorkersFinished() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + SINK_DRAIN_TIMEOUT;
+        while (KavaSinkPipeline.getActiveWorkersCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, KavaSinkPipeline.getActiveWorkersCount());
+    }
+
+    private static boolean allCollected(List<WeakReference<KavaAnalyticsPlugin>> references) {
+        for (WeakReference<KavaAnalyticsPlugin> reference : references) {
+            if (reference.get() != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Verifies on the sink worker thread that eventIndex starts at 1 for every entry and strictly increases.
+     * Only the last event is kept, so the sink itself does not grow with the session.
+     */
+    private static final class EventIndexSink implements KavaEventSink {
+
+        private String currentEntryId;
+        private long lastEventIndex;
+        private long eventsCount;
+        private String failure;
+
+        @Override
+        public synchronized void write(String event) {
+            int separator = event.lastIndexOf('|');
+            String entryId = event.substring(0, separator);
+            long eventIndex = Long.parseLong(event.substring(separator + 1));
+            eventsCount++;
+
+            if (!entryId.equals(currentEntryId)) {
+                if (eventIndex != 1 && failure == null) {
+                    failure = "first eventIndex of " + entryId + " is " + eventIndex;
+                }
+            } else if (eventIndex <= lastEventIndex && failure == null) {
+                failure = "eventIndex of " + entryId + " went from " + lastEventIndex + " to " + eventIndex;
+            }
+            currentEntryId = entryId;
+            lastEventIndex = eventIndex;
+        }
+
+        @Override
+        public void close() {
+            //Sink outlives its workers, a new worker is started for the next plugin.
+        }
+
+        synchronized long getEventsCount() {
+            return eventsCount;
+        }
+
+        synchronized String getFailure() {
+            return failure;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import com.kaltura.netkit.connect.request.RequestBuilder;
+import com.kaltura.netkit.connect.request.RequestElement;
+import com.kaltura.netkit.connect.response.ResponseElement;
+import com.kaltura.netkit.utils.OnRequestCompletion;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KavaDispatcherTest {
+
+    private static final String BASE_URL = "http://localhost/";
+
+    private static final OnRequestCompletion NO_COMPLETION = new OnRequestCompletion() {
+        @Override
+        public void onComplete(ResponseElement response) {
+        }
+    };
+
+    private FakeRequestQueue requestQueue;
+    private KavaDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        requestQueue = new FakeRequestQueue(false);
+        dispatcher = new KavaDispatcher(requestQueue.getRequestQueue());
+        dispatcher.setMaxInFlight(1);
+    }
+
+    @Test
+    public void weightsDivideRequestsProportionally() {
+        KavaDispatcher.Session main = dispatcher.openSession();
+        main.setWeight(4);
+        KavaDispatcher.Session preview = dispatcher.openSession();
+
+        queue(main, "main", 40);
+        queue(preview, "preview", 40);
+        completeNext(24);
+
+        List<String> sentUrls = requestQueue.getSentUrls();
+        assertEquals(25, sentUrls.size());
+        assertEquals(20, count(sentUrls, "main"));
+        assertEquals(5, count(sentUrls, "preview"));
+    }
+
+    @Test
+    public void foregroundSessionIsNotStarvedByPreviewBacklog() {
+        KavaDispatcher.Session preview = dispatcher.openSession();
+        queue(preview, "preview", 50);
+
+        KavaDispatcher.Session main = dispatcher.openSession();
+        main.moveToForeground();
+        queue(main, "main", 8);
+        completeNext(9);
+
+        List<String> sentUrls = requestQueue.getSentUrls();
+        assertEquals(8, count(sentUrls, "main"));
+        //Boost only reorders, the preview keeps sending.
+        assertEquals(2, count(sentUrls, "preview"));
+    }
+
+    @Test
+    public void inFlightCapIsNeverExceeded() {
+        dispatcher.setMaxInFlight(3);
+        KavaDispatcher.Session first = dispatcher.openSession();
+        KavaDispatcher.Session second = dispatcher.openSession();
+        second.setWeight(2);
+        KavaDispatcher.Session third = dispatcher.openSession();
+        third.moveToForeground();
+
+        for (int round = 0; round < 30; round++) {
+            queue(first, "first", 1);
+            queue(second, "second", 2);
+            queue(third, "third", 1);
+            assertTrue(dispatcher.getInFlightCount() <= 3);
+            //Complete out of order, the latest request first.
+            List<RequestElement> outstanding = requestQueue.getOutstanding();
+            requestQueue.complete(outstanding.get(outstanding.size() - 1));
+        }
+        while (requestQueue.completeNext()) {
+            assertTrue(dispatcher.getInFlightCount() <= 3);
+        }
+
+        assertEquals(3, requestQueue.getMaxOutstanding());
+        assertEquals(120, requestQueue.getSentUrls().size());
+        assertEquals(0, dispatcher.getInFlightCount());
+    }
+
+    @Test
+    public void closedSessionSendsQueuedRequestsThenIsRemoved() {
+        KavaDispatcher.Session closing = dispatcher.openSession();
+        KavaDispatcher.Session other = dispatcher.openSession();
+        queue(closing, "closing", 5);
+        queue(other, "other", 5);
+
+        closing.close();
+        assertEquals(2, dispatcher.getSessionsCount());
+
+        completeNext(10);
+        List<String> sentUrls = requestQueue.getSentUrls();
+        assertEquals(5, count(sentUrls, "closing"));
+        assertEquals(5, count(sentUrls, "other"));
+        assertEquals(1, dispatcher.getSessionsCount());
+
+        //Removal did not break the round-robin cursor of the remaining session.
+        queue(other, "other", 1);
+        assertEquals(11, requestQueue.getSentUrls().size());
+    }
+
+    @Test
+    public void closedSessionWithoutRequestsIsRemovedRightAway() {
+        KavaDispatcher.Session session = dispatcher.openSession();
+        session.close();
+        assertEquals(0, dispatcher.getSessionsCount());
+    }
+
+    @Test
+    public void failedQueueReleasesSlot() {
+        KavaDispatcher.Session session = dispatcher.openSession();
+        requestQueue.setQueueFailure(new IllegalStateException("executor is shut down"));
+        queue(session, "lost", 3);
+        assertEquals(3, requestQueue.getSentUrls().size());
+        assertEquals(0, dispatcher.getInFlightCount());
+
+        requestQueue.setQueueFailure(null);
+        queue(session, "sent", 1);
+        assertEquals(1, requestQueue.getOutstanding().size());
+        assertEquals(1, dispatcher.getInFlightCount());
+    }
+
+    @Test
+    public void requestWithoutCompletionReleasesSlotAfterTimeout() throws InterruptedException {
+        dispatcher = new KavaDispatcher(requestQueue.getRequestQueue(), 50);
+        dispatcher.setMaxInFlight(1);
+        KavaDispatcher.Session session = dispatcher.openSession();
+
+        queue(session, "lost", 1);
+        RequestElement lost = requestQueue.getOutstanding().get(0);
+        queue(session, "waiting", 1);
+        assertEquals(1, requestQueue.getSentUrls().size());
+
+        Thread.sleep(100);
+        queue(session, "next", 1);
+        assertEquals(BASE_URL + "waiting", requestQueue.getSentUrls().get(1));
+        assertEquals(1, dispatcher.getInFlightCount());
+
+        //Late completion must not release the slot of another request.
+        requestQueue.complete(lost);
+        assertEquals(1, dispatcher.getInFlightCount());
+        assertEquals(2, requestQueue.getSentUrls().size());
+
+        completeNext(1);
+        assertEquals(BASE_URL + "next", requestQueue.getSentUrls().get(2));
+    }
+
+    private void queue(KavaDispatcher.Session session, String name, int count) {
+        for (int i = 0; i < count; i++) {
+            RequestBuilder requestBuilder = new RequestBuilder().method("GET").url(BASE_URL + name);
+            session.queue(session.prepare(requestBuilder, NO_COMPLETION), null);
+        }
+    }
+
+    private void completeNext(int count) {
+        for (int i = 0; i < count; i++) {
+            assertTrue(requestQueue.completeNext());
+        }
+    }
+
+    private static int count(List<String> urls, String name) {
+        int count = 0;
+        for (String url : urls) {
+            if (url.equals(BASE_URL + name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
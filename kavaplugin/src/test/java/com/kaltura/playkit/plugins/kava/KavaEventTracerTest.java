@@ -0,0 +1,74 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class KavaEventTracerTest {
+
+    private final KavaEventTracer tracer = KavaEventTracer.getInstance();
+
+    @After
+    public void tearDown() {
+        tracer.clear();
+    }
+
+    @Test
+    public void notSampledEventIsNotTraced() {
+        assertNull(tracer.startTrace("VIEW", System.nanoTime(), 0));
+    }
+
+    @Test
+    public void spansAreAsyncEventsOfTheirTrace() throws InterruptedException {
+        final KavaEventTracer.Trace first = tracer.startTrace("PLAY", System.nanoTime(), 1);
+        KavaEventTracer.Trace second = tracer.startTrace("VIEW", System.nanoTime(), 1);
+        first.mark("dispatch");
+        second.mark("dispatch");
+
+        //Stage that ends on another thread stays on the track of its trace.
+        Thread callbackThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                first.mark("queueWaitAndNetwork");
+            }
+        });
+        callbackThread.start();
+        callbackThread.join();
+
+        JsonArray traceEvents = new JsonParser().parse(tracer.dumpChromeTrace()).getAsJsonObject().getAsJsonArray("traceEvents");
+        assertEquals(6, traceEvents.size());
+        for (int i = 0; i < traceEvents.size(); i += 2) {
+            JsonObject begin = traceEvents.get(i).getAsJsonObject();
+            JsonObject end = traceEvents.get(i + 1).getAsJsonObject();
+            assertEquals("b", begin.get("ph").getAsString());
+            assertEquals("e", end.get("ph").getAsString());
+            assertEquals(begin.get("id"), end.get("id"));
+            assertEquals(begin.get("name"), end.get("name"));
+            assertTrue(begin.get("ts").getAsLong() <= end.get("ts").getAsLong());
+        }
+
+        JsonObject networkBegin = traceEvents.get(4).getAsJsonObject();
+        assertEquals("queueWaitAndNetwork", networkBegin.get("name").getAsString());
+        assertEquals(first.getTraceId(), networkBegin.get("id").getAsLong());
+        assertEquals(callbackThread.getId(), networkBegin.getAsJsonObject("args").get("endThreadId").getAsLong());
+    }
+}
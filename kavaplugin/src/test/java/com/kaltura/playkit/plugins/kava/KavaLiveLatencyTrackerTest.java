@@ -0,0 +1,113 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+
+package com.kaltura.playkit.plugins.kava;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KavaLiveLatencyTrackerTest {
+
+    private static final long TICK = 1000;
+    private static final long DVR_THRESHOLD = 30 * 1000;
+    private static final long DRIFT_THRESHOLD = 10 * 1000;
+
+    private final KavaLiveLatencyTracker tracker = new KavaLiveLatencyTracker();
+
+    @Test
+    public void intervalIsSummarized() {
+        //1..100 seconds from the live edge.
+        for (int second = 1; second <= 100; second++) {
+            tracker.sample(second * 1000, TICK, DVR_THRESHOLD);
+        }
+
+        Map<String, String> params = getViewParams();
+        assertEquals("1.0", params.get("distanceFromLiveMin"));
+        assertEquals("50.5", params.get("distanceFromLiveAvg"));
+        assertEquals("95.0", params.get("distanceFromLiveP95"));
+        //Samples 30..100 are in DVR.
+        assertEquals("71.0", params.get("timeInDvr"));
+    }
+
+    @Test
+    public void resetIntervalStartsNewSummary() {
+        tracker.sample(50 * 1000, TICK, DVR_THRESHOLD);
+        tracker.resetInterval();
+
+        assertTrue(getViewParams().isEmpty());
+        tracker.sample(5 * 1000, TICK, DVR_THRESHOLD);
+        Map<String, String> params = getViewParams();
+        assertEquals("5.0", params.get("distanceFromLiveMin"));
+        assertEquals("5.0", params.get("distanceFromLiveP95"));
+        assertEquals("0.0", params.get("timeInDvr"));
+    }
+
+    @Test
+    public void longIntervalKeepsAllStatsOnSameWindow() {
+        //Far from the live edge at the start only, then close to it for much longer than the buffer.
+        for (int i = 0; i < 300; i++) {
+            tracker.sample(100 * 1000, TICK, DVR_THRESHOLD);
+        }
+        for (int i = 0; i < 3700; i++) {
+            tracker.sample(1000, TICK, DVR_THRESHOLD);
+        }
+
+        Map<String, String> params = getViewParams();
+        assertEquals("1.0", params.get("distanceFromLiveMin"));
+        assertEquals("8.425", params.get("distanceFromLiveAvg"));
+        //More than 5% of the interval was far from the live edge, so p95 reports it although the buffer is long full.
+        assertEquals("100.0", params.get("distanceFromLiveP95"));
+        assertEquals("300.0", params.get("timeInDvr"));
+    }
+
+    @Test
+    public void growingDistanceIsDrift() {
+        tracker.sample(2000, TICK, DVR_THRESHOLD);
+        tracker.sample(15 * 1000, TICK, DVR_THRESHOLD);
+        assertEquals("true", getViewParams().get("liveEdgeDrift"));
+    }
+
+    @Test
+    public void seekIsNotDrift() {
+        tracker.sample(2000, TICK, DVR_THRESHOLD);
+        tracker.onSeek();
+        assertEquals(-1, tracker.getDistanceFromLive(TICK));
+        tracker.sample(15 * 1000, TICK, DVR_THRESHOLD);
+        tracker.sample(16 * 1000, TICK, DVR_THRESHOLD);
+        assertEquals("false", getViewParams().get("liveEdgeDrift"));
+    }
+
+    @Test
+    public void pauseIsNotDrift() {
+        tracker.sample(2000, TICK, DVR_THRESHOLD);
+        tracker.onPauseOrResume();
+        tracker.onPauseOrResume();
+        tracker.sample(15 * 1000, TICK, DVR_THRESHOLD);
+        assertEquals("false", getViewParams().get("liveEdgeDrift"));
+
+        //Growth after resume still counts.
+        tracker.sample(26 * 1000, TICK, DVR_THRESHOLD);
+        assertEquals("true", getViewParams().get("liveEdgeDrift"));
+    }
+
+    private Map<String, String> getViewParams() {
+        Map<String, String> params = new HashMap<>();
+        tracker.addViewParams(params, DRIFT_THRESHOLD);
+        return params;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KavaSamplingPolicyTest {
+
+    private KavaSamplingPolicy samplingPolicy;
+
+    @Before
+    public void setUp() {
+        samplingPolicy = new KavaSamplingPolicy();
+    }
+
+    @Test
+    public void viewEventIntervalStaysBelowSessionTimeout() {
+        samplingPolicy.applyConfig(new KavaAnalyticsConfig().setViewEventInterval(60000));
+        assertEquals(KavaSamplingPolicy.MAX_VIEW_EVENT_GAP, samplingPolicy.getViewEventInterval());
+
+        samplingPolicy.applyConfig(new KavaAnalyticsConfig().setViewEventInterval(15000));
+        assertEquals(15000, samplingPolicy.getViewEventInterval());
+
+        samplingPolicy.applyServerResponse(parse("{\"viewEventInterval\": 30000}"));
+        assertEquals(KavaSamplingPolicy.MAX_VIEW_EVENT_GAP, samplingPolicy.getViewEventInterval());
+        assertTrue(KavaSamplingPolicy.MAX_VIEW_EVENT_GAP < KavaAnalyticsConfig.KAVA_SESSION_TIMEOUT);
+    }
+
+    @Test
+    public void sampledOutViewIsSentBeforeSessionTimesOut() {
+        samplingPolicy.applyConfig(new KavaAnalyticsConfig().setEventSampleRate("VIEW", 0).setEventSampleRate("FLAVOR_SWITCHED", 0));
+        samplingPolicy.startSession();
+
+        //Default 10 seconds interval: the first VIEW may be dropped, the second one would be too late to drop.
+        assertFalse(samplingPolicy.shouldSend("VIEW", 10000));
+        assertTrue(samplingPolicy.shouldSend("VIEW", 20000));
+        //Other events are not affected.
+        assertFalse(samplingPolicy.shouldSend("FLAVOR_SWITCHED", 20000));
+    }
+
+    @Test
+    public void viewDisabledByServerIsNotForced() {
+        samplingPolicy.startSession();
+        samplingPolicy.applyServerResponse(parse("{\"viewEventsEnabled\": false}"));
+        assertFalse(samplingPolicy.shouldSend("VIEW", 20000));
+    }
+
+    @Test
+    public void serverSessionSampleRateAppliesToNextSession() {
+        samplingPolicy.startSession();
+        samplingPolicy.applyServerResponse(parse("{\"sessionSampleRate\": 0}"));
+        assertTrue(samplingPolicy.shouldSend("PLAY"));
+
+        samplingPolicy.startSession();
+        assertFalse(samplingPolicy.shouldSend("PLAY"));
+    }
+
+    private static JsonObject parse(String json) {
+        return new JsonParser().parse(json).getAsJsonObject();
+    }
+}
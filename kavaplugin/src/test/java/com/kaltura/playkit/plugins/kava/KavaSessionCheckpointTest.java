@@ -0,0 +1,111 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+
+package com.kaltura.playkit.plugins.kava;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+public class KavaSessionCheckpointTest {
+
+    private final List<Runnable> pendingWrites = new ArrayList<>();
+    private final Executor writeExecutor = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            pendingWrites.add(command);
+        }
+    };
+
+    private FakeSharedPreferences preferences;
+    private KavaSessionCheckpoint checkpoint;
+
+    @Before
+    public void setUp() {
+        preferences = new FakeSharedPreferences();
+        Context context = mock(Context.class, withSettings().stubOnly());
+        when(context.getSharedPreferences("kava_session_checkpoint", Context.MODE_PRIVATE)).thenReturn(preferences);
+        checkpoint = new KavaSessionCheckpoint(context, writeExecutor);
+    }
+
+    @Test
+    public void saveIsCommittedOnWriteExecutor() {
+        checkpoint.save(createState("entry"));
+        assertEquals(1, pendingWrites.size());
+        assertNull(checkpoint.load("entry"));
+
+        runPendingWrites();
+        assertEquals(1, preferences.getCommitsCount());
+        KavaSessionCheckpoint.State state = checkpoint.load("entry");
+        assertNotNull(state);
+        assertEquals("session", state.sessionId);
+        assertEquals(7, state.eventIndex);
+        assertTrue(state.playReached25);
+        assertFalse(state.isExpired(60 * 1000));
+    }
+
+    @Test
+    public void clearRemovesOnlyItsEntry() {
+        checkpoint.save(createState("entry"));
+        checkpoint.save(createState("other"));
+        checkpoint.clear("entry");
+        runPendingWrites();
+
+        assertNull(checkpoint.load("entry"));
+        assertNotNull(checkpoint.load("other"));
+    }
+
+    @Test
+    public void removeExpiredKeepsRecentEntries() {
+        checkpoint.save(createState("entry"));
+        runPendingWrites();
+        preferences.edit().putLong("old|savedAt", System.currentTimeMillis() - 60 * 1000).putString("old|sessionId", "old").commit();
+
+        checkpoint.removeExpired(30 * 1000);
+        runPendingWrites();
+
+        assertNull(checkpoint.load("old"));
+        assertFalse(preferences.contains("old|sessionId"));
+        assertNotNull(checkpoint.load("entry"));
+    }
+
+    private void runPendingWrites() {
+        for (Runnable write : pendingWrites) {
+            write.run();
+        }
+        pendingWrites.clear();
+    }
+
+    private static KavaSessionCheckpoint.State createState(String entryId) {
+        KavaSessionCheckpoint.State state = new KavaSessionCheckpoint.State();
+        state.entryId = entryId;
+        state.sessionId = "session";
+        state.eventIndex = 7;
+        state.playReached25 = true;
+        return state;
+    }
+}
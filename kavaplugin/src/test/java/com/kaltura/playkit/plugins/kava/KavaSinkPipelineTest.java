@@ -0,0 +1,114 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KavaSinkPipelineTest {
+
+    private static final KavaEventEncoder PARAM_NAMES = new KavaEventEncoder() {
+        @Override
+        public String encode(Map<String, String> params) {
+            return params.keySet().toString();
+        }
+    };
+
+    @After
+    public void tearDown() throws InterruptedException {
+        //Workers are process-wide, so none may outlive the test.
+        long deadline = System.currentTimeMillis() + 10000;
+        while (KavaSinkPipeline.getActiveWorkersCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, KavaSinkPipeline.getActiveWorkersCount());
+    }
+
+    @Test
+    public void ksIsNotPublishedToSinks() throws InterruptedException {
+        KavaQueueSink sink = new KavaQueueSink(10);
+        KavaSinkPipeline sinkPipeline = new KavaSinkPipeline(Collections.singletonList(
+                new KavaSinkPipeline.Registration(sink, PARAM_NAMES, KavaSinkPipeline.DEFAULT_QUEUE_CAPACITY)));
+
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("eventType", "99");
+        params.put("ks", "secret");
+        params.put("eventIndex", "7");
+        sinkPipeline.publish(params);
+        sinkPipeline.shutdown();
+
+        assertEquals("[eventType, eventIndex]", sink.getQueue().poll(5, TimeUnit.SECONDS));
+        //Params sent to the Kava server keep the ks.
+        assertEquals("secret", params.get("ks"));
+    }
+
+    @Test
+    public void sinkIsNotWrittenWhileItIsClosing() throws InterruptedException {
+        ClosingSink sink = new ClosingSink();
+        KavaSinkPipeline.Registration registration = new KavaSinkPipeline.Registration(sink, PARAM_NAMES, KavaSinkPipeline.DEFAULT_QUEUE_CAPACITY);
+
+        KavaSinkPipeline firstPipeline = new KavaSinkPipeline(Collections.singletonList(registration));
+        firstPipeline.shutdown();
+        assertTrue(sink.closeStarted.await(5, TimeUnit.SECONDS));
+
+        //Same sink registered again while the first worker is still inside close().
+        KavaSinkPipeline secondPipeline = new KavaSinkPipeline(Collections.singletonList(registration));
+        secondPipeline.publish(Collections.singletonMap("eventType", "1"));
+        Thread.sleep(100);
+        assertEquals(0, sink.writesCount);
+
+        sink.closeAllowed.countDown();
+        secondPipeline.shutdown();
+        assertTrue(sink.writeDone.await(5, TimeUnit.SECONDS));
+        assertEquals(false, sink.writtenWhileClosing);
+    }
+
+    private static final class ClosingSink implements KavaEventSink {
+
+        private final CountDownLatch closeStarted = new CountDownLatch(1);
+        private final CountDownLatch closeAllowed = new CountDownLatch(1);
+        private final CountDownLatch writeDone = new CountDownLatch(1);
+        private volatile boolean isClosing;
+        private volatile boolean writtenWhileClosing;
+        private volatile int writesCount;
+
+        @Override
+        public void write(String encodedEvent) {
+            writtenWhileClosing |= isClosing;
+            writesCount++;
+            writeDone.countDown();
+        }
+
+        @Override
+        public void close() {
+            isClosing = true;
+            closeStarted.countDown();
+            try {
+                //Only the first close blocks, the second worker closes right away.
+                closeAllowed.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            isClosing = false;
+        }
+    }
+}
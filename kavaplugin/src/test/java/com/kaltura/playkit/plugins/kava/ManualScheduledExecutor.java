@@ -0,0 +1,210 @@
+/*
+ * ============================================================================
+ * Copyright (C) 2017 Kaltura Inc.
+ *
+ * Licensed under the AGPLv3 license, unless a different license for a
+ * particular library is specified in the applicable library path.
+ *
+ * You may obtain a copy of the License at
+ * https://www.gnu.org/licenses/agpl-3.0.html
+ * ============================================================================
+ */
+
+package com.kaltura.playkit.plugins.kava;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler with a virtual clock. Tasks run on the calling thread of {@link #advanceBy(long)},
+ * so days of playback can be simulated in seconds.
+ * Only the scheduler runs on the virtual clock. Code that reads {@link System#currentTimeMillis()} directly
+ * still sees wall time, which advances only microseconds per simulated second.
+ */
+
+class ManualScheduledExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+    private final List<Task<?>> tasks = new ArrayList<>();
+    private long now;
+    private boolean shutdown;
+
+    long now() {
+        return now;
+    }
+
+    int getScheduledTasksCount() {
+        return tasks.size();
+    }
+
+    void advanceBy(long millis) {
+        long target = now + millis;
+        while (true) {
+            Task<?> next = null;
+            for (Task<?> task : tasks) {
+                if (task.nextRunTime <= target && (next == null || task.nextRunTime < next.nextRunTime)) {
+                    next = task;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+
+            now = next.nextRunTime;
+            if (next.period > 0) {
+                next.nextRunTime += next.period;
+            } else {
+                tasks.remove(next);
+                next.done = true;
+            }
+            next.run();
+        }
+        now = target;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return addTask(Executors.callable(command), unit.toMillis(delay), 0);
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return addTask(callable, unit.toMillis(delay), 0);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        return addTask(Executors.callable(command), unit.toMillis(initialDelay), unit.toMillis(period));
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        //Tasks take no virtual time, so fixed delay and fixed rate are the same.
+        return addTask(Executors.callable(command), unit.toMillis(initialDelay), unit.toMillis(delay));
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        command.run();
+    }
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        tasks.clear();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return shutdown;
+    }
+
+    private <V> Task<V> addTask(Callable<V> callable, long delay, long period) {
+        Task<V> task = new Task<>(callable, now + delay, period);
+        tasks.add(task);
+        return task;
+    }
+
+    private final class Task<V> implements ScheduledFuture<V> {
+
+        private final Callable<V> callable;
+        private final long period;
+        private long nextRunTime;
+        private boolean cancelled;
+        private boolean done;
+        private V result;
+        private Exception failure;
+
+        private Task(Callable<V> callable, long nextRunTime, long period) {
+            this.callable = callable;
+            this.nextRunTime = nextRunTime;
+            this.period = period;
+        }
+
+        private void run() {
+            try {
+                result = callable.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                failure = e;
+            }
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(nextRunTime - now, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            long diff = getDelay(TimeUnit.MILLISECONDS) - other.getDelay(TimeUnit.MILLISECONDS);
+            return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (done) {
+                return false;
+            }
+            cancelled = true;
+            done = true;
+            tasks.remove(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done;
+        }
+
+        /**
+         * Never blocks: the result is available once {@link #advanceBy(long)} ran the task.
+         */
+        @Override
+        public V get() throws ExecutionException {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+            return result;
+        }
+
+        @Override
+        public V get(long timeout, TimeUnit unit) throws ExecutionException {
+            return get();
+        }
+    }
+}